@@ -0,0 +1,76 @@
+package Boundaries;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Wall kernels for the simplest shapes written with the incubating Java 
+ * Vector API, which test a whole vector of balls against the wall at once.
+ * Very few balls touch the wall in any step, so only the test is vectorised:
+ * a vector with no ball touching is skipped outright, and any ball that is 
+ * touching is bounced by the shape's own Bounce_All. The test is the same 
+ * arithmetic as the scalar one, so the results are identical.
+ *
+ * Compiling and running this class needs the jdk.incubator.vector module,
+ * i.e. --add-modules jdk.incubator.vector, so it is kept in its own source
+ * root and only looked up by WallKernels when the module is present.
+ *
+ * @author cjcode975
+ */
+final class SimdWalls implements WallKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    SimdWalls(){
+    }
+
+    @Override
+    public void Bounce_Rectangle(Rectangle box, double hx, double hy, double x[], double y[], double vx[], double vy[], double radius[], int from, int to){
+        DoubleVector half_x = DoubleVector.broadcast(SPECIES, hx), half_y = DoubleVector.broadcast(SPECIES, hy);
+        int i = from, upper = from+SPECIES.loopBound(to-from);
+        for(; i<upper; i+=SPECIES.length()){
+            DoubleVector r = DoubleVector.fromArray(SPECIES, radius, i);
+            VectorMask<Double> touching = half_x.sub(DoubleVector.fromArray(SPECIES, x, i).abs()).lt(r)
+                    .or(half_y.sub(DoubleVector.fromArray(SPECIES, y, i).abs()).lt(r));
+            Bounce_Lanes(box, touching, x, y, vx, vy, radius, i);
+        }
+        box.Bounce_All(x, y, vx, vy, radius, i, to);
+    }
+
+    @Override
+    public void Bounce_Circle(Circle circle, double rad, double x[], double y[], double vx[], double vy[], double radius[], int from, int to){
+        DoubleVector wall = DoubleVector.broadcast(SPECIES, rad);
+        int i = from, upper = from+SPECIES.loopBound(to-from);
+        for(; i<upper; i+=SPECIES.length()){
+            DoubleVector px = DoubleVector.fromArray(SPECIES, x, i), py = DoubleVector.fromArray(SPECIES, y, i);
+            VectorMask<Double> touching = px.mul(px).add(py.mul(py)).sqrt()
+                    .add(DoubleVector.fromArray(SPECIES, radius, i)).compare(VectorOperators.GT, wall);
+            Bounce_Lanes(circle, touching, x, y, vx, vy, radius, i);
+        }
+        circle.Bounce_All(x, y, vx, vy, radius, i, to);
+    }
+
+    /**
+     * Bounce the balls in the set lanes of a mask
+     * @param boundary boundary to bounce off
+     * @param touching mask of balls touching the wall
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param vx x velocities of the balls
+     * @param vy y velocities of the balls
+     * @param radius radii of the balls
+     * @param i index of the ball in the first lane
+     */
+    private static void Bounce_Lanes(Boundary boundary, VectorMask<Double> touching, double x[], double y[], double vx[], double vy[], double radius[], int i){
+        if(!touching.anyTrue()){
+            return;
+        }
+        for(int lane=touching.firstTrue(); lane<SPECIES.length(); lane++){
+            if(touching.laneIsSet(lane)){
+                boundary.Bounce_All(x, y, vx, vy, radius, i+lane, i+lane+1);
+            }
+        }
+    }
+}
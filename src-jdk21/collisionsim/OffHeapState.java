@@ -0,0 +1,213 @@
+package collisionsim;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Positions and velocities of the balls of a BallSim held in double
+ * precision outside the Java heap, using the Foreign Function and Memory API.
+ * The memory is either allocated directly or mapped from a file, and is
+ * freed once the state is no longer reachable.
+ *
+ * The memory holds the x positions, y positions, x velocities then y
+ * velocities of all balls, each as n_balls doubles in the native byte order,
+ * then the original index of each ball as n_balls ints. When mapped from a
+ * file, Force writes the current state to the file, so it can be read back 
+ * later without any conversion.
+ *
+ * On Java 21 this API is a preview feature, so this class needs
+ * --enable-preview to compile and run. It is kept in its own source root,
+ * and StateStore.Off_Heap only looks it up by name when OFF_HEAP storage is
+ * used.
+ *
+ * @author cjcode975
+ */
+class OffHeapState extends StateStore {
+
+    private static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT;
+
+    private final int n_balls;
+    private final MemorySegment memory, x, y, vx, vy, ids;
+
+    /**
+     * Set up the state in memory allocated outside the heap
+     * @param partition partition to sort the balls into
+     * @param N_Balls number of balls
+     */
+    OffHeapState(CellList partition, int N_Balls){
+        this(partition, N_Balls, Arena.ofAuto().allocate(Size(N_Balls), DOUBLE.byteSize()));
+    }
+
+    /**
+     * Set up the state in memory mapped from a file
+     * @param partition partition to sort the balls into
+     * @param N_Balls number of balls
+     * @param fName file to map
+     * @param resume true to keep the state already in the file, which must
+     * be exactly the size needed, false to create the file or cut it to size
+     * @throws IOException if the file cannot be opened or mapped, or is the
+     * wrong size to resume from
+     */
+    OffHeapState(CellList partition, int N_Balls, String fName, boolean resume) throws IOException{
+        this(partition, N_Balls, Map(fName, Size(N_Balls), resume));
+    }
+
+    /**
+     * @param partition partition to sort the balls into
+     * @param N_Balls number of balls
+     * @param segment memory to hold the state in
+     */
+    private OffHeapState(CellList partition, int N_Balls, MemorySegment segment){
+        super(partition);
+        n_balls = N_Balls;
+        memory = segment;
+        long block = n_balls*DOUBLE.byteSize();
+        x = memory.asSlice(0, block);
+        y = memory.asSlice(block, block);
+        vx = memory.asSlice(2*block, block);
+        vy = memory.asSlice(3*block, block);
+        ids = memory.asSlice(4*block, n_balls*INT.byteSize());
+    }
+
+    /**
+     * Set up the state outside the heap. Called by StateStore.Off_Heap
+     * @param partition partition to sort the balls into
+     * @param N_Balls number of balls
+     * @param fName file to map, or null to allocate the memory directly
+     * @param resume true to keep the state already in the file
+     * @return state
+     * @throws IOException if the file cannot be opened or mapped, or is the
+     * wrong size to resume from
+     */
+    static StateStore Create(CellList partition, int N_Balls, String fName, boolean resume) throws IOException{
+        return fName==null ? new OffHeapState(partition, N_Balls) : new OffHeapState(partition, N_Balls, fName, resume);
+    }
+
+    /**
+     * Get the number of bytes needed to hold the state
+     * @param n_balls number of balls
+     * @return size in bytes
+     */
+    private static long Size(int n_balls){
+        return n_balls*(4*DOUBLE.byteSize()+INT.byteSize());
+    }
+
+    /**
+     * Map a file into memory for reading and writing
+     * @param fName file to map
+     * @param size number of bytes to map
+     * @param resume true if the file must already exist with exactly this 
+     * size, false to create it or cut it to size
+     * @return mapped memory
+     * @throws IOException if the file cannot be opened or mapped, or is the
+     * wrong size to resume from
+     */
+    private static MemorySegment Map(String fName, long size, boolean resume) throws IOException{
+        Path path = Path.of(fName);
+        try(FileChannel channel = resume ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            if(resume && channel.size()!=size){
+                throw new IOException("State file "+fName+" holds "+channel.size()+" bytes, but "+size+" are needed for this number of balls");
+            }
+            if(channel.size()>size){
+                channel.truncate(size);
+            }
+            //The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size, Arena.ofAuto());
+        }
+    }
+
+    @Override
+    void Load(double X[], double Y[], double VX[], double VY[]){
+        MemorySegment.copy(X, 0, x, DOUBLE, 0, n_balls);
+        MemorySegment.copy(Y, 0, y, DOUBLE, 0, n_balls);
+        MemorySegment.copy(VX, 0, vx, DOUBLE, 0, n_balls);
+        MemorySegment.copy(VY, 0, vy, DOUBLE, 0, n_balls);
+    }
+
+    @Override
+    void Save_Ids(int IDs[]){
+        MemorySegment.copy(IDs, 0, ids, INT, 0, n_balls);
+    }
+
+    @Override
+    int[] Load_Ids(){
+        return ids.toArray(INT);
+    }
+
+    @Override
+    void Force(){
+        if(memory.isMapped()){
+            memory.force();
+        }
+    }
+
+    @Override
+    void Unpack(double X[], double Y[], double VX[], double VY[]){
+        MemorySegment.copy(x, DOUBLE, 0, X, 0, n_balls);
+        MemorySegment.copy(y, DOUBLE, 0, Y, 0, n_balls);
+        MemorySegment.copy(vx, DOUBLE, 0, VX, 0, n_balls);
+        MemorySegment.copy(vy, DOUBLE, 0, VY, 0, n_balls);
+    }
+
+    @Override
+    double X(int i){
+        return x.getAtIndex(DOUBLE, i);
+    }
+
+    @Override
+    double Y(int i){
+        return y.getAtIndex(DOUBLE, i);
+    }
+
+    @Override
+    double VX(int i){
+        return vx.getAtIndex(DOUBLE, i);
+    }
+
+    @Override
+    double VY(int i){
+        return vy.getAtIndex(DOUBLE, i);
+    }
+
+    @Override
+    double Dx(int i, int j){
+        return X(i)-X(j);
+    }
+
+    @Override
+    double Dy(int i, int j){
+        return Y(i)-Y(j);
+    }
+
+    @Override
+    void Set(int i, double X, double Y, double VX, double VY){
+        x.setAtIndex(DOUBLE, i, X);
+        y.setAtIndex(DOUBLE, i, Y);
+        vx.setAtIndex(DOUBLE, i, VX);
+        vy.setAtIndex(DOUBLE, i, VY);
+    }
+
+    @Override
+    void Advance(double dt){
+        for(int i=0; i<n_balls; i++){
+            x.setAtIndex(DOUBLE, i, x.getAtIndex(DOUBLE, i)+vx.getAtIndex(DOUBLE, i)*dt);
+            y.setAtIndex(DOUBLE, i, y.getAtIndex(DOUBLE, i)+vy.getAtIndex(DOUBLE, i)*dt);
+        }
+    }
+
+    @Override
+    void Rebin(){
+        int ballCell[] = cells.ballCell;
+        for(int i=0; i<n_balls; i++){
+            ballCell[i] = cells.cell(X(i), Y(i));
+        }
+        cells.Sort(0);
+    }
+}
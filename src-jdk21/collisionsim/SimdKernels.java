@@ -0,0 +1,36 @@
+package collisionsim;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Time stepping kernel written with the incubating Java Vector API, which
+ * moves a whole vector of balls at once. Gives exactly the same positions
+ * as the scalar loop in BallSim.Step_Time.
+ *
+ * Compiling and running this class needs the jdk.incubator.vector module,
+ * i.e. --add-modules jdk.incubator.vector, so it is kept in its own source
+ * root and only looked up by StepKernels when the module is present.
+ *
+ * @author cjcode975
+ */
+final class SimdKernels implements StepKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    SimdKernels(){
+    }
+
+    @Override
+    public void Advance(double x[], double y[], double vx[], double vy[], double dt, int n){
+        int i = 0, upper = SPECIES.loopBound(n);
+        for(; i<upper; i+=SPECIES.length()){
+            DoubleVector.fromArray(SPECIES, vx, i).mul(dt).add(DoubleVector.fromArray(SPECIES, x, i)).intoArray(x, i);
+            DoubleVector.fromArray(SPECIES, vy, i).mul(dt).add(DoubleVector.fromArray(SPECIES, y, i)).intoArray(y, i);
+        }
+        for(; i<n; i++){
+            x[i] += vx[i]*dt;
+            y[i] += vy[i]*dt;
+        }
+    }
+}
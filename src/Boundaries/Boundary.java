@@ -1,6 +1,8 @@
 package Boundaries;
 
+import Physics.Formulae;
 import Physics.Matrix;
+import Physics.Vec2;
 import Physics.Vector;
 
 /**
@@ -26,11 +28,18 @@ public abstract class Boundary {
                     throw new IllegalArgumentException("Wrong number of specifications made on boundary");
                 }
                 return new Circle(Double.parseDouble(args[1]));
+            case "Composite":
+                return Composite.parseComposite(args);
             case "Dispersive":
                 if(args.length!=2){
                     throw new IllegalArgumentException("Wrong number of specifications made on boundary");
                 }
                 return new Dispersive(Double.parseDouble(args[1]));
+            case "Ellipse":
+                if(args.length!=3){
+                    throw new IllegalArgumentException("Wrong number of specifications made on boundary");
+                }
+                return new Ellipse(Double.parseDouble(args[1]),Double.parseDouble(args[2]));
             case "Mushroom":
                 if(args.length!=4){
                     throw new IllegalArgumentException("Wrong number of specifications made on boundary");
@@ -58,6 +67,14 @@ public abstract class Boundary {
     //Store a bounding box for the boundary - x_min, x_max, y_min, y_max
     double bounds[] = new double[4];
     
+    //Contact type found by the last call to OutOfBounds, read by Normal and 
+    //Rewind_Time
+    private int hit = Contact.NONE;
+    
+    //Optional precomputed distance to the wall, used to skip exact wall 
+    //tests for balls well away from it
+    private DistanceField field;
+    
     /**
      * Get the bounding box of the boundary
      * @return 
@@ -71,7 +88,33 @@ public abstract class Boundary {
      * @param loc position on boundary
      * @return normal vector for the surface
      */
-    public abstract Vector Normal(Vector loc);
+    public Vector Normal(Vector loc){
+        Vec2 normal = new Vec2();
+        Normal(loc.get(0), loc.get(1), normal);
+        return normal.toVector();
+    }
+    
+    /**
+     * Get the unit normal to the surface of the boundary at a point, pointing
+     * into the billiard, without allocating. Must be called after 
+     * OutOfBounds has returned true for the same ball
+     * @param x x position on boundary
+     * @param y y position on boundary
+     * @param normal Vec2 to write the normal into
+     */
+    public void Normal(double x, double y, Vec2 normal){
+        Normal(hit, x, y, normal);
+    }
+    
+    /**
+     * Get the unit normal, pointing into the billiard, to a given part of 
+     * the boundary at a point
+     * @param type contact type, as returned by Contact_Type
+     * @param x x position on boundary
+     * @param y y position on boundary
+     * @param normal Vec2 to write the normal into
+     */
+    protected abstract void Normal(int type, double x, double y, Vec2 normal);
     
     /**
      * Check if a ball is outside bounds or in contact with the boundary wall 
@@ -79,10 +122,158 @@ public abstract class Boundary {
      * @param radius radius of the ball
      * @return if the boundary is breached
      */
-    public abstract boolean OutOfBounds(Vector loc, double radius);
+    public boolean OutOfBounds(Vector loc, double radius){
+        return OutOfBounds(loc.get(0), loc.get(1), radius);
+    }
+    
+    /**
+     * Check if a ball is outside bounds or in contact with the boundary wall 
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param radius radius of the ball
+     * @return if the boundary is breached
+     */
+    public boolean OutOfBounds(double x, double y, double radius){
+        hit = Clear(x, y, radius) ? Contact.NONE : Contact_Type(x, y, radius);
+        return hit!=Contact.NONE;
+    }
+    
+    /**
+     * Calculate the signed distance from a point to the wall of the 
+     * boundary, positive inside the billiard. A ball is touching the wall 
+     * whenever its centre is closer to it than its radius
+     * @param x x position
+     * @param y y position
+     * @return signed distance to the wall
+     */
+    public abstract double Distance(double x, double y);
+    
+    /**
+     * Precompute the distance to the wall on a grid, so that wall tests on 
+     * balls well away from the wall cost a single lookup. Worthwhile for 
+     * shapes with several curved parts in large billiards
+     * @param spacing distance between grid points, or 0 to stop using a grid
+     */
+    public void Set_Distance_Field(double spacing){
+        field = spacing>0 ? new DistanceField(this, spacing) : null;
+    }
+    
+    /**
+     * Get the precomputed distance to the wall
+     * @return distance field, or null if none has been set
+     */
+    public DistanceField getDistanceField(){
+        return field;
+    }
+    
+    /**
+     * Check, using the distance field if there is one, if a ball is 
+     * certainly clear of the wall, so needs no exact test
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param radius radius of the ball
+     * @return true if the ball is known not to touch the wall
+     */
+    protected final boolean Clear(double x, double y, double radius){
+        return field!=null && field.Lower_Bound(x, y)>radius;
+    }
+    
+    /**
+     * Calculate the distance from a point to a line segment
+     * @param px x position of the point
+     * @param py y position of the point
+     * @param ax x position of one end of the segment
+     * @param ay y position of one end of the segment
+     * @param bx x position of the other end of the segment
+     * @param by y position of the other end of the segment
+     * @return distance
+     */
+    static double Segment_Distance(double px, double py, double ax, double ay, double bx, double by){
+        double dx = bx-ax, dy = by-ay;
+        double t = ((px-ax)*dx+(py-ay)*dy)/(dx*dx+dy*dy);
+        t = Math.max(0, Math.min(1, t));
+        return Vec2.magnitude(px-ax-t*dx, py-ay-t*dy);
+    }
+    
+    /**
+     * Find which parts of the boundary wall a ball is touching
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param radius radius of the ball
+     * @return bit flags of the parts of the wall touched, specific to each
+     * shape, or Contact.NONE if the ball is inside and clear of the wall
+     */
+    protected abstract int Contact_Type(double x, double y, double radius);
        
+    /**
+     * Calculate how long ago a ball breaching the boundary first touched it.
+     * Must be called after OutOfBounds has returned true for the same ball
+     * @param loc centre of the ball
+     * @param vel velocity of the ball
+     * @param radius radius of the ball
+     * @return time since the ball touched the wall, or NaN if there is no
+     * valid time
+     */
+    public double Rewind_Time(Vector loc, Vector vel, double radius){
+        return Rewind_Time(loc.get(0), loc.get(1), vel.get(0), vel.get(1), radius);
+    }
+    
+    /**
+     * Calculate how long ago a ball breaching the boundary first touched it.
+     * Must be called after OutOfBounds has returned true for the same ball
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param radius radius of the ball
+     * @return time since the ball touched the wall, or NaN if there is no
+     * valid time
+     */
+    public double Rewind_Time(double x, double y, double vx, double vy, double radius){
+        return Rewind_Time(hit, x, y, vx, vy, radius);
+    }
     
-    public abstract double Rewind_Time(Vector loc, Vector vel, double radius);
+    /**
+     * Calculate how long ago a ball breaching a given part of the boundary
+     * first touched it
+     * @param type contact type, as returned by Contact_Type
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param radius radius of the ball
+     * @return time since the ball touched the wall, or NaN if there is no
+     * valid time
+     */
+    protected abstract double Rewind_Time(int type, double x, double y, double vx, double vy, double radius);
+    
+    /**
+     * Find whether a ball is touching the wall and, if it is, which part of
+     * the wall, how long ago it first touched it and the normal at the point
+     * of first contact, all in one call. Unlike OutOfBounds, Normal and 
+     * Rewind_Time this changes no state of the boundary, so may be called 
+     * from several threads at once, each with its own Contact
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param radius radius of the ball
+     * @param contact filled in with the details of the contact
+     * @return if the ball is touching the wall
+     */
+    public boolean Contact(double x, double y, double vx, double vy, double radius, Contact contact){
+        int type = Clear(x, y, radius) ? Contact.NONE : Contact_Type(x, y, radius);
+        contact.type = type;
+        if(type==Contact.NONE){
+            contact.rewind = Double.NaN;
+            return false;
+        }
+        
+        contact.rewind = Rewind_Time(type, x, y, vx, vy, radius);
+        double t = contact.isValid() ? contact.rewind : 0;
+        Normal(type, x-vx*t, y-vy*t, contact.normal);
+        return true;
+    }
     
     /**
      * Calculate the new velocity of a ball after hitting the boundary
@@ -92,29 +283,366 @@ public abstract class Boundary {
      * @return updated velocity
      */
     public Matrix Bounce(Vector loc, Vector vel, double radius){
-        //Rewind time to the point where the ball hit the surface
-        double dt = Rewind_Time(loc,vel,radius);
-        if(dt<0){
+        Vec2 loc_prime = new Vec2(loc.get(0), loc.get(1));
+        Vec2 vel_prime = new Vec2(vel.get(0), vel.get(1));
+        if(!Bounce(loc_prime, vel_prime, radius)){
             throw new IllegalStateException("Rewind time calculated as negative");
-        }    
-        
-        Vector loc_prime = loc.sub(vel.scale(dt));
-        
-        //Calculate velocity after reflection
-        Vector normal = Normal(loc_prime);
-        Vector parallel = normal.scale(vel.dot(normal));       
-        
-        Vector vel_prime = vel.sub(parallel.scale(2));
-        loc_prime = loc_prime.add(vel_prime.scale(dt));
+        }
         
         //Output data
         Matrix output = new Matrix(2,2);
-        output.setCol(0, loc_prime);
-        output.setCol(1, vel_prime);
+        output.setCol(0, loc_prime.toVector());
+        output.setCol(1, vel_prime.toVector());
         
         return output;
     }
     
+    //Scratch space for Bounce and Next_Hit_Time when the caller gives none,
+    //and for each thread running Bounce_All
+    private final Contact contactScratch = new Contact();
+    private static final ThreadLocal<Contact> THREAD_CONTACT = ThreadLocal.withInitial(Contact::new);
+    
+    /**
+     * Bounce a ball off the boundary, updating its position and velocity in 
+     * place without allocating
+     * @param loc centre point of the ball, updated to the corrected position
+     * @param vel velocity of the ball, updated to the reflected velocity
+     * @param radius radius of the ball
+     * @return false, leaving loc and vel unchanged, if the ball is not 
+     * touching the wall or no valid rewind time could be found
+     */
+    public boolean Bounce(Vec2 loc, Vec2 vel, double radius){
+        return Bounce(loc, vel, radius, contactScratch);
+    }
+    
+    /**
+     * Bounce a ball off the boundary if it is touching it, updating its 
+     * position and velocity in place. Changes no state of the boundary, so 
+     * may be called from several threads at once, each with its own Contact
+     * @param loc centre point of the ball, updated to the corrected position
+     * @param vel velocity of the ball, updated to the reflected velocity
+     * @param radius radius of the ball
+     * @param contact scratch space for the contact details
+     * @return false, leaving loc and vel unchanged, if the ball is not 
+     * touching the wall or no valid rewind time could be found
+     */
+    public boolean Bounce(Vec2 loc, Vec2 vel, double radius, Contact contact){
+        if(!Contact(loc.x, loc.y, vel.x, vel.y, radius, contact) || !contact.isValid()){
+            return false;
+        }
+        
+        //Rewind time to the point where the ball hit the surface, reflect 
+        //the velocity there and evolve back
+        double dt = contact.rewind;
+        loc.addScaled(vel, -dt);
+        vel.reflect(contact.normal);
+        loc.addScaled(vel, dt);
+        return true;
+    }
+    
+    /**
+     * Bounce every ball in a range that is touching the wall, updating the
+     * state arrays in place. Gives the same result as calling Bounce on each
+     * ball in turn, and likewise changes no state of the boundary, so 
+     * disjoint ranges may be done on different threads. Shapes override 
+     * this with loops specialised to their own geometry
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param vx x velocities of the balls
+     * @param vy y velocities of the balls
+     * @param radius radii of the balls
+     * @param from index of first ball
+     * @param to index after the last ball
+     */
+    public void Bounce_All(double x[], double y[], double vx[], double vy[], double radius[], int from, int to){
+        Contact contact = THREAD_CONTACT.get();
+        for(int i=from; i<to; i++){
+            if(Contact(x[i], y[i], vx[i], vy[i], radius[i], contact) && contact.isValid()){
+                Reflect(x, y, vx, vy, i, contact.rewind, contact.normal.x, contact.normal.y);
+            }
+        }
+    }
+    
+    /**
+     * Same as Bounce_All, with identical results, but shapes simple enough 
+     * to test whole vectors of balls against the wall at once do so with the
+     * incubating Java Vector API, when it and the src-jdk21 kernels are
+     * available
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param vx x velocities of the balls
+     * @param vy y velocities of the balls
+     * @param radius radii of the balls
+     * @param from index of first ball
+     * @param to index after the last ball
+     */
+    public void Bounce_All_Simd(double x[], double y[], double vx[], double vy[], double radius[], int from, int to){
+        Bounce_All(x, y, vx, vy, radius, from, to);
+    }
+    
+    /**
+     * Check if a rewind time can be used to bounce a ball
+     * @param dt rewind time
+     * @return if dt is finite and not negative
+     */
+    static boolean Valid(double dt){
+        return dt>=0 && dt<Double.POSITIVE_INFINITY;
+    }
+    
+    /**
+     * Bounce ball i off the wall: rewind it to the contact, reflect its 
+     * velocity and evolve it back
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param vx x velocities of the balls
+     * @param vy y velocities of the balls
+     * @param i index of the ball
+     * @param dt time since the ball touched the wall
+     * @param nx x component of the unit normal at the contact
+     * @param ny y component of the unit normal at the contact
+     */
+    static void Reflect(double x[], double y[], double vx[], double vy[], int i, double dt, double nx, double ny){
+        x[i] -= vx[i]*dt;
+        y[i] -= vy[i]*dt;
+        
+        double vn = vx[i]*nx+vy[i]*ny;
+        vx[i] -= 2*vn*nx;
+        vy[i] -= 2*vn*ny;
+        
+        x[i] += vx[i]*dt;
+        y[i] += vy[i]*dt;
+    }
+
+    //Number of bisection steps used to refine a wall hit found by marching
+    private static final int HIT_BISECTIONS = 60;
+
+    //Distance moved past a candidate hit time before checking for contact,
+    //matching the nudge used by the event engine
+    private static final double HIT_TOL = 1e-9;
+
+    //Most candidate hit times a shape may list, see Hit_Candidates
+    static final int MAX_CANDIDATES = 32;
+
+    /**
+     * Calculate how long until a ball moving in a straight line next comes
+     * into contact with the boundary while moving against the surface 
+     * normal, as the overload taking a Contact. Uses scratch space held by 
+     * the boundary, so must not be called from several threads at once
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param radius radius of the ball
+     * @return time until contact, or Double.POSITIVE_INFINITY if the ball
+     * never hits the wall
+     */
+    public double Next_Hit_Time(double x, double y, double vx, double vy, double radius){
+        return Next_Hit_Time(x, y, vx, vy, radius, contactScratch);
+    }
+
+    /**
+     * Calculate how long until a ball moving in a straight line next comes
+     * into contact with the boundary while moving against the surface 
+     * normal. A ball which starts off touching the wall and moving away from
+     * it is therefore not counted as hitting it. On return of a finite time
+     * the contact holds the part of the wall hit and the normal there. 
+     * Changes no state of the boundary, so may be called from several 
+     * threads at once, each with its own Contact.
+     *
+     * Shapes which list the times their contact tests can change through 
+     * Hit_Candidates get the exact time: the ball is checked just after each
+     * candidate and the earliest hit is kept. Other shapes fall back on 
+     * March_Hit_Time.
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param radius radius of the ball
+     * @param contact scratch space, filled in with the details of the hit
+     * @return time until contact, or Double.POSITIVE_INFINITY if the ball
+     * never hits the wall
+     */
+    public double Next_Hit_Time(double x, double y, double vx, double vy, double radius, Contact contact){
+        contact.type = Contact.NONE;
+        contact.rewind = Double.NaN;
+        double speed = Vec2.magnitude(vx, vy);
+        if(speed==0){
+            return Double.POSITIVE_INFINITY;
+        }
+        int n = Hit_Candidates(x, y, vx, vy, radius, contact.times);
+        if(n<0){
+            return March_Hit_Time(x, y, vx, vy, radius, contact);
+        }
+        return First_Hit(x, y, vx, vy, radius, contact.times, n, contact);
+    }
+
+    /**
+     * Find the earliest of a list of candidate times, as given by 
+     * Hit_Candidates, just after which a ball is hitting the wall
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param radius radius of the ball
+     * @param times candidate times
+     * @param n number of candidate times
+     * @param contact scratch space, filled in with the details of the hit
+     * @return time until contact, or Double.POSITIVE_INFINITY if the ball
+     * hits the wall after none of the candidates
+     */
+    protected final double First_Hit(double x, double y, double vx, double vy, double radius, double times[], int n, Contact contact){
+        double speed = Vec2.magnitude(vx, vy);
+        
+        //Already touching and heading into the wall, so hit immediately
+        if(Hitting(x, y, vx, vy, radius, contact)){
+            return 0;
+        }
+        double nudge = HIT_TOL/speed, best = Double.POSITIVE_INFINITY;
+        for(int k=0; k<n; k++){
+            double t = times[k];
+            if(t>=0 && t<best && Hitting(x+vx*(t+nudge), y+vy*(t+nudge), vx, vy, radius, contact)){
+                best = t;
+            }
+        }
+        if(best<Double.POSITIVE_INFINITY){
+            //Describe the earliest hit, not the last one checked
+            Hitting(x+vx*(best+nudge), y+vy*(best+nudge), vx, vy, radius, contact);
+        }
+        else{
+            contact.type = Contact.NONE;
+        }
+        return best;
+    }
+
+    /**
+     * List every time at which the contact test for a moving ball could 
+     * change, i.e. when it crosses any line or circle that OutOfBounds or
+     * Normal compare against, or when the sign of its velocity along a 
+     * curved normal flips. Between two listed times the ball is either 
+     * hitting the wall throughout or not at all, so the first listed time 
+     * after which it is hitting is the exact hit time. Times may be negative
+     * or repeated.
+     *
+     * The default lists nothing and returns -1, which makes Next_Hit_Time 
+     * march along the path instead.
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param radius radius of the ball
+     * @param times array of length MAX_CANDIDATES to write the times into
+     * @return number of times listed, or -1 if the shape has no list
+     */
+    protected int Hit_Candidates(double x, double y, double vx, double vy, double radius, double times[]){
+        return -1;
+    }
+
+    /**
+     * Add the time a ball crosses an axis aligned line to a list of 
+     * candidate hit times
+     * @param p position of the ball along the axis
+     * @param v velocity of the ball along the axis
+     * @param c position of the line along the axis
+     * @param times candidate list
+     * @param n number of times already listed
+     * @return new number of times listed
+     */
+    protected static int Line_Crossing(double p, double v, double c, double times[], int n){
+        if(v!=0){
+            times[n++] = (c-p)/v;
+        }
+        return n;
+    }
+
+    /**
+     * Add the times a ball crosses a circle, and the time it is closest to 
+     * the centre (where its velocity along a radial normal changes sign), to
+     * a list of candidate hit times
+     * @param dx x position of the ball relative to the centre of the circle
+     * @param dy y position of the ball relative to the centre of the circle
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param rad radius of the circle
+     * @param times candidate list
+     * @param n number of times already listed
+     * @return new number of times listed
+     */
+    protected static int Circle_Crossings(double dx, double dy, double vx, double vy, double rad, double times[], int n){
+        double a = vx*vx+vy*vy, b = dx*vx+dy*vy;
+        times[n++] = -b/a;
+        return n+Formulae.quadraticRealRoots(a, 2*b, dx*dx+dy*dy-rad*rad, times, n);
+    }
+
+    /**
+     * Calculate how long until a ball next hits the wall by marching along 
+     * the path in steps of half a radius and bisecting the first step at 
+     * which the ball is found hitting the wall. Works for any shape, but may
+     * miss a graze shorter than a step.
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param radius radius of the ball
+     * @param contact scratch space, filled in with the details of the hit
+     * @return time until contact, or Double.POSITIVE_INFINITY if the ball
+     * never hits the wall
+     */
+    protected final double March_Hit_Time(double x, double y, double vx, double vy, double radius, Contact contact){
+        double speed = Vec2.magnitude(vx, vy);
+        if(speed==0){
+            return Double.POSITIVE_INFINITY;
+        }
+
+        //No straight path inside the billiard is longer than the bounding box diagonal
+        double horizon = (Vec2.magnitude(bounds[1]-bounds[0], bounds[3]-bounds[2])+2*radius)/speed;
+        double h = 0.5*radius/speed;
+
+        //Already touching and heading into the wall, so hit immediately
+        if(Hitting(x, y, vx, vy, radius, contact)){
+            return 0;
+        }
+        for(double t=h; t<=horizon+h; t+=h){
+            if(Hitting(x+vx*t, y+vy*t, vx, vy, radius, contact)){
+                double lo = t-h, hi = t;
+                for(int k=0; k<HIT_BISECTIONS; k++){
+                    double mid = 0.5*(lo+hi);
+                    if(Hitting(x+vx*mid, y+vy*mid, vx, vy, radius, contact)){
+                        hi = mid;
+                    }
+                    else{
+                        lo = mid;
+                    }
+                }
+                //Describe the hit, not the last point checked
+                Hitting(x+vx*hi, y+vy*hi, vx, vy, radius, contact);
+                return hi;
+            }
+        }
+        contact.type = Contact.NONE;
+        return Double.POSITIVE_INFINITY;
+    }
+    
+    /**
+     * Check if a ball is touching the wall and moving into it, i.e. against 
+     * the surface normal
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param radius radius of the ball
+     * @param contact filled in with the part of the wall touched and the
+     * normal there
+     * @return if the ball is hitting the wall
+     */
+    protected final boolean Hitting(double x, double y, double vx, double vy, double radius, Contact contact){
+        contact.type = Clear(x, y, radius) ? Contact.NONE : Contact_Type(x, y, radius);
+        if(contact.type==Contact.NONE){
+            return false;
+        }
+        Normal(contact.type, x, y, contact.normal);
+        return vx*contact.normal.x+vy*contact.normal.y<0;
+    }
+
     /**
      * Draw the boundary
      */
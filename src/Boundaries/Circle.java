@@ -1,8 +1,7 @@
 package Boundaries;
 
 import Physics.Formulae;
-import Physics.Vector;
-import java.util.ArrayList;
+import Physics.Vec2;
 import std.StdDraw;
 
 /**
@@ -13,6 +12,9 @@ public class Circle extends Boundary{
     
     double rad;
     
+    //Contact type: touching the wall
+    private static final int WALL = 1;
+    
     public Circle(double radius){
         bounds[0] = -radius;
         bounds[1] = radius;
@@ -23,18 +25,56 @@ public class Circle extends Boundary{
     }
 
     @Override
-    public double Rewind_Time(Vector loc, Vector vel, double radius) {       
-          return Formulae.whenCirclesIntersected(loc, new Vector(2), vel, new Vector(2), -radius, rad);
+    protected double Rewind_Time(int type, double x, double y, double vx, double vy, double radius) {       
+          return Formulae.whenCirclesIntersected(x, y, vx, vy, -radius, rad);
     }
     
     @Override
-    public Vector Normal(Vector loc) {        
-        return loc.unit().scale(-1);
+    protected void Normal(int type, double x, double y, Vec2 normal) {        
+        normal.set(-x, -y).unit();
+    }
+
+    @Override
+    protected int Contact_Type(double x, double y, double radius) {
+        return Vec2.magnitude(x, y)+radius > rad ? WALL : Contact.NONE;
+    }
+
+    @Override
+    public double Distance(double x, double y){
+        return rad-Vec2.magnitude(x, y);
+    }
+
+    @Override
+    protected int Hit_Candidates(double x, double y, double vx, double vy, double radius, double times[]){
+        return Circle_Crossings(x, y, vx, vy, rad-radius, times, 0);
+    }
+
+    @Override
+    public void Bounce_All(double x[], double y[], double vx[], double vy[], double radius[], int from, int to){
+        for(int i=from; i<to; i++){
+            double r = radius[i];
+            if(Vec2.magnitude(x[i], y[i])+r <= rad){
+                continue;
+            }
+            
+            double dt = Formulae.whenCirclesIntersected(x[i], y[i], vx[i], vy[i], -r, rad);
+            if(!Valid(dt)){
+                continue;
+            }
+            
+            double x0 = x[i]-vx[i]*dt, y0 = y[i]-vy[i]*dt;
+            double inv = 1/Vec2.magnitude(-x0, -y0);
+            Reflect(x, y, vx, vy, i, dt, -x0*inv, -y0*inv);
+        }
     }
 
     @Override
-    public boolean OutOfBounds(Vector loc, double radius) {
-        return loc.magnitude()+radius > rad;
+    public void Bounce_All_Simd(double x[], double y[], double vx[], double vy[], double radius[], int from, int to){
+        if(WallKernels.SIMD==null){
+            Bounce_All(x, y, vx, vy, radius, from, to);
+            return;
+        }
+        WallKernels.SIMD.Bounce_Circle(this, rad, x, y, vx, vy, radius, from, to);
     }
 
     @Override
@@ -0,0 +1,765 @@
+package Boundaries;
+
+import Physics.Vec2;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import std.StdDraw;
+
+/**
+ * Class defining a boundary of any shape made up of straight line segments
+ * and circular arcs. Each piece is traversed so that the billiard is on its
+ * left, so a closed outline goes anticlockwise and a hole inside it goes
+ * clockwise. Arcs are given by their centre, radius, start angle and signed
+ * sweep in degrees; an anticlockwise arc (positive sweep) bulges away from
+ * the billiard like the Circle wall, a clockwise one into it like the Sinai
+ * hole.
+ *
+ * The pieces are held in a bounding volume hierarchy, a binary tree of
+ * nested bounding boxes, so finding the pieces near a ball only visits
+ * the few boxes close to it rather than every piece. A ball is touching the
+ * wall if any piece is closer than its radius, and the contact type is one
+ * more than the index of a piece it touches. Where a ball touches more than
+ * one piece, as it can near a corner, Contact and Next_Hit_Time take the 
+ * piece it is moving into that it touched first, so a ball leaving one 
+ * piece is never stopped from hitting the next.
+ *
+ * Boundaries can be read from a file by Load, with one piece per line:
+ * <pre>
+ * segment x0 y0 x1 y1
+ * arc cx cy radius start sweep
+ * </pre>
+ * Blank lines and lines starting with # are ignored.
+ *
+ * @author cjcode975
+ */
+public class Composite extends Boundary{
+
+    //Kinds of piece
+    private static final int SEGMENT = 0, ARC = 1;
+
+    //Most pieces held in a leaf of the hierarchy
+    private static final int LEAF_SIZE = 4;
+
+    //Pieces as given, for saving
+    private final double segments[][], arcs[][];
+
+    //Every piece has a start point (ax, ay) and end point (bx, by). Arcs
+    //also have a centre, radius, and start angle and sweep in radians
+    private final int n_pieces;
+    private final int kind[];
+    private final double ax[], ay[], bx[], by[];
+    private final double cx[], cy[], rad[], start[], sweep[];
+    //Bounding box of each piece, x_min, x_max, y_min, y_max at 4*k
+    private final double pieceBox[];
+
+    //Hierarchy: node b has bounding box at 4*b and either two children, or
+    //no children (left is -1) and holds the pieces
+    //items[nodeStart[b]] ... items[nodeEnd[b]-1]. Node 0 is the root
+    private final double nodeBox[];
+    private final int nodeLeft[], nodeRight[], nodeStart[], nodeEnd[], items[];
+    private int n_nodes = 0;
+
+    //Distance moved past a candidate time before checking for contact
+    private static final double HIT_TOL = 1e-9;
+
+    //Scratch space for the candidate times of Rewind_Time when it is reached
+    //through the single-threaded OutOfBounds, Rewind_Time(x, y, ...) path
+    private final double rewindTimes[] = new double[12];
+
+    /**
+     * Create a boundary from lists of pieces
+     * @param segment_list line segments, each {x0, y0, x1, y1}
+     * @param arc_list arcs, each {centre x, centre y, radius, start angle,
+     * sweep}, angles in degrees. Both lists are copied, so later changes to
+     * them do not affect the boundary
+     */
+    public Composite(double segment_list[][], double arc_list[][]){
+        segments = Copy(segment_list);
+        arcs = Copy(arc_list);
+        n_pieces = segments.length+arcs.length;
+        if(n_pieces==0){
+            throw new IllegalArgumentException("Boundary has no pieces");
+        }
+
+        kind = new int[n_pieces];
+        ax = new double[n_pieces];
+        ay = new double[n_pieces];
+        bx = new double[n_pieces];
+        by = new double[n_pieces];
+        cx = new double[n_pieces];
+        cy = new double[n_pieces];
+        rad = new double[n_pieces];
+        start = new double[n_pieces];
+        sweep = new double[n_pieces];
+        pieceBox = new double[4*n_pieces];
+
+        for(int k=0; k<segments.length; k++){
+            kind[k] = SEGMENT;
+            ax[k] = segments[k][0];
+            ay[k] = segments[k][1];
+            bx[k] = segments[k][2];
+            by[k] = segments[k][3];
+            Set_Box(pieceBox, k, Math.min(ax[k], bx[k]), Math.max(ax[k], bx[k]), Math.min(ay[k], by[k]), Math.max(ay[k], by[k]));
+        }
+        for(int a=0; a<arcs.length; a++){
+            int k = segments.length+a;
+            kind[k] = ARC;
+            cx[k] = arcs[a][0];
+            cy[k] = arcs[a][1];
+            rad[k] = arcs[a][2];
+            start[k] = Math.toRadians(arcs[a][3]);
+            sweep[k] = Math.toRadians(arcs[a][4]);
+            ax[k] = cx[k]+rad[k]*Math.cos(start[k]);
+            ay[k] = cy[k]+rad[k]*Math.sin(start[k]);
+            bx[k] = cx[k]+rad[k]*Math.cos(start[k]+sweep[k]);
+            by[k] = cy[k]+rad[k]*Math.sin(start[k]+sweep[k]);
+
+            //Endpoints, and any of the extreme points of the circle on the arc
+            double box[] = {Math.min(ax[k], bx[k]), Math.max(ax[k], bx[k]), Math.min(ay[k], by[k]), Math.max(ay[k], by[k])};
+            if(In_Sweep(k, cx[k]-rad[k], cy[k])){ box[0] = cx[k]-rad[k]; }
+            if(In_Sweep(k, cx[k]+rad[k], cy[k])){ box[1] = cx[k]+rad[k]; }
+            if(In_Sweep(k, cx[k], cy[k]-rad[k])){ box[2] = cy[k]-rad[k]; }
+            if(In_Sweep(k, cx[k], cy[k]+rad[k])){ box[3] = cy[k]+rad[k]; }
+            Set_Box(pieceBox, k, box[0], box[1], box[2], box[3]);
+        }
+
+        nodeBox = new double[8*n_pieces];
+        nodeLeft = new int[2*n_pieces];
+        nodeRight = new int[2*n_pieces];
+        nodeStart = new int[2*n_pieces];
+        nodeEnd = new int[2*n_pieces];
+        items = new int[n_pieces];
+        for(int k=0; k<n_pieces; k++){
+            items[k] = k;
+        }
+        Build(0, n_pieces);
+
+        System.arraycopy(nodeBox, 0, bounds, 0, 4);
+    }
+
+    /**
+     * Copy a list of pieces, including each piece
+     * @param list pieces
+     * @return copy of list
+     */
+    private static double[][] Copy(double list[][]){
+        double copy[][] = new double[list.length][];
+        for(int k=0; k<list.length; k++){
+            copy[k] = list[k].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Read a boundary from a file, with one piece per line
+     * @param filename name of file
+     * @return boundary
+     * @throws IOException if the file can't be read
+     */
+    public static Composite Load(String filename) throws IOException{
+        List<double[]> segment_list = new ArrayList<>(), arc_list = new ArrayList<>();
+        try(BufferedReader br = new BufferedReader(new FileReader(filename))){
+            String line;
+            while((line = br.readLine())!=null){
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")){
+                    continue;
+                }
+                Add_Piece(line.split("[\\s,]+"), 0, segment_list, arc_list);
+            }
+        }
+        return new Composite(segment_list.toArray(new double[0][]), arc_list.toArray(new double[0][]));
+    }
+
+    /**
+     * Reconstruct a boundary from its description, as given by toString, or
+     * read it from a file
+     * @param args "Composite" followed by either a file name, or the pieces,
+     * each a letter S or A followed by its values
+     * @return boundary
+     */
+    static Composite parseComposite(String args[]){
+        if(args.length==2){
+            try{
+                return Load(args[1]);
+            }
+            catch(IOException e){
+                throw new IllegalArgumentException("Could not read boundary file "+args[1], e);
+            }
+        }
+
+        List<double[]> segment_list = new ArrayList<>(), arc_list = new ArrayList<>();
+        int i = 1;
+        while(i<args.length){
+            i = Add_Piece(args, i, segment_list, arc_list);
+        }
+        return new Composite(segment_list.toArray(new double[0][]), arc_list.toArray(new double[0][]));
+    }
+
+    /**
+     * Read one piece from a list of words, a name followed by its values
+     * @param words list of words
+     * @param i index of the name of the piece
+     * @param segment_list list to add a segment to
+     * @param arc_list list to add an arc to
+     * @return index of the word after the piece
+     */
+    private static int Add_Piece(String words[], int i, List<double[]> segment_list, List<double[]> arc_list){
+        String name = words[i].toLowerCase();
+        int n_values;
+        List<double[]> list;
+        if(name.equals("s") || name.equals("segment")){
+            n_values = 4;
+            list = segment_list;
+        }
+        else if(name.equals("a") || name.equals("arc")){
+            n_values = 5;
+            list = arc_list;
+        }
+        else{
+            throw new IllegalArgumentException("Unknown boundary piece "+words[i]);
+        }
+        if(i+n_values>=words.length){
+            throw new IllegalArgumentException("Wrong number of specifications made on boundary");
+        }
+
+        double values[] = new double[n_values];
+        for(int k=0; k<n_values; k++){
+            values[k] = Double.parseDouble(words[i+1+k]);
+        }
+        list.add(values);
+        return i+1+n_values;
+    }
+
+    /**
+     * Build the subtree of the hierarchy holding items[lo] ... items[hi-1],
+     * splitting at the median centre of the pieces along the axis they are
+     * most spread out on
+     * @param lo first item
+     * @param hi one past the last item
+     * @return index of the node at the root of the subtree
+     */
+    private int Build(int lo, int hi){
+        int node = n_nodes++;
+        double min_x = Double.POSITIVE_INFINITY, max_x = Double.NEGATIVE_INFINITY;
+        double min_y = Double.POSITIVE_INFINITY, max_y = Double.NEGATIVE_INFINITY;
+        double lo_cx = Double.POSITIVE_INFINITY, hi_cx = Double.NEGATIVE_INFINITY;
+        double lo_cy = Double.POSITIVE_INFINITY, hi_cy = Double.NEGATIVE_INFINITY;
+        for(int p=lo; p<hi; p++){
+            int b = 4*items[p];
+            min_x = Math.min(min_x, pieceBox[b]);
+            max_x = Math.max(max_x, pieceBox[b+1]);
+            min_y = Math.min(min_y, pieceBox[b+2]);
+            max_y = Math.max(max_y, pieceBox[b+3]);
+            lo_cx = Math.min(lo_cx, pieceBox[b]+pieceBox[b+1]);
+            hi_cx = Math.max(hi_cx, pieceBox[b]+pieceBox[b+1]);
+            lo_cy = Math.min(lo_cy, pieceBox[b+2]+pieceBox[b+3]);
+            hi_cy = Math.max(hi_cy, pieceBox[b+2]+pieceBox[b+3]);
+        }
+        Set_Box(nodeBox, node, min_x, max_x, min_y, max_y);
+
+        if(hi-lo<=LEAF_SIZE){
+            nodeLeft[node] = -1;
+            nodeStart[node] = lo;
+            nodeEnd[node] = hi;
+            return node;
+        }
+
+        int axis = hi_cx-lo_cx>=hi_cy-lo_cy ? 0 : 2;
+        Integer sorted[] = new Integer[hi-lo];
+        for(int p=lo; p<hi; p++){
+            sorted[p-lo] = items[p];
+        }
+        Arrays.sort(sorted, (k, l) -> Double.compare(pieceBox[4*k+axis]+pieceBox[4*k+axis+1], pieceBox[4*l+axis]+pieceBox[4*l+axis+1]));
+        for(int p=lo; p<hi; p++){
+            items[p] = sorted[p-lo];
+        }
+
+        int mid = (lo+hi)/2;
+        nodeLeft[node] = Build(lo, mid);
+        nodeRight[node] = Build(mid, hi);
+        return node;
+    }
+
+    /**
+     * Store a bounding box
+     * @param boxes list of boxes, 4 values each
+     * @param k index of box
+     */
+    private static void Set_Box(double boxes[], int k, double min_x, double max_x, double min_y, double max_y){
+        boxes[4*k] = min_x;
+        boxes[4*k+1] = max_x;
+        boxes[4*k+2] = min_y;
+        boxes[4*k+3] = max_y;
+    }
+
+    /**
+     * Check if the direction from the centre of an arc to a point lies
+     * within the sweep of the arc
+     * @param k index of arc
+     * @param x x position
+     * @param y y position
+     * @return if the point is in the arc's sector
+     */
+    private boolean In_Sweep(int k, double x, double y){
+        double angle = Math.atan2(y-cy[k], x-cx[k])-start[k];
+        if(sweep[k]>0){
+            angle -= 2*Math.PI*Math.floor(angle/(2*Math.PI));
+            return angle<=sweep[k];
+        }
+        angle -= 2*Math.PI*Math.ceil(angle/(2*Math.PI));
+        return angle>=sweep[k];
+    }
+
+    /**
+     * Find the point of a piece nearest to a given point
+     * @param k index of piece
+     * @param x x position
+     * @param y y position
+     * @param nearest Vec2 to write the nearest point into
+     * @return nearest
+     */
+    private Vec2 Nearest_Point(int k, double x, double y, Vec2 nearest){
+        if(kind[k]==SEGMENT){
+            double ex = bx[k]-ax[k], ey = by[k]-ay[k];
+            double t = ((x-ax[k])*ex+(y-ay[k])*ey)/(ex*ex+ey*ey);
+            t = Math.min(1, Math.max(0, t));
+            return nearest.set(ax[k]+t*ex, ay[k]+t*ey);
+        }
+
+        if(In_Sweep(k, x, y)){
+            double d = Vec2.magnitude(x-cx[k], y-cy[k]);
+            if(d>0){
+                return nearest.set(cx[k]+rad[k]*(x-cx[k])/d, cy[k]+rad[k]*(y-cy[k])/d);
+            }
+        }
+        if(Vec2.magnitude(x-ax[k], y-ay[k])<=Vec2.magnitude(x-bx[k], y-by[k])){
+            return nearest.set(ax[k], ay[k]);
+        }
+        return nearest.set(bx[k], by[k]);
+    }
+
+    /**
+     * Get the distance from a point to a piece
+     * @param k index of piece
+     * @param x x position
+     * @param y y position
+     * @return distance, never negative
+     */
+    private double Piece_Distance(int k, double x, double y){
+        if(kind[k]==SEGMENT){
+            double ex = bx[k]-ax[k], ey = by[k]-ay[k];
+            double t = ((x-ax[k])*ex+(y-ay[k])*ey)/(ex*ex+ey*ey);
+            t = Math.min(1, Math.max(0, t));
+            return Vec2.magnitude(x-ax[k]-t*ex, y-ay[k]-t*ey);
+        }
+
+        if(In_Sweep(k, x, y)){
+            return Math.abs(Vec2.magnitude(x-cx[k], y-cy[k])-rad[k]);
+        }
+        return Math.min(Vec2.magnitude(x-ax[k], y-ay[k]), Vec2.magnitude(x-bx[k], y-by[k]));
+    }
+
+    /**
+     * Get the distance from a point to a node's bounding box
+     * @param node index of node
+     * @param x x position
+     * @param y y position
+     * @return distance, 0 inside the box
+     */
+    private double Box_Distance(int node, double x, double y){
+        int b = 4*node;
+        double dx = Math.max(Math.max(nodeBox[b]-x, x-nodeBox[b+1]), 0);
+        double dy = Math.max(Math.max(nodeBox[b+2]-y, y-nodeBox[b+3]), 0);
+        return Vec2.magnitude(dx, dy);
+    }
+
+    /**
+     * Search a subtree for the piece nearest to a point, if it is nearer
+     * than the best found so far
+     * @param node root of subtree
+     * @param x x position
+     * @param y y position
+     * @param best nearest piece found so far, or -1 for none
+     * @param best_d distance to the best piece, or how near a piece must be
+     * to be found if there is none yet
+     * @return nearest piece found, or -1 for none
+     */
+    private int Nearest(int node, double x, double y, int best, double best_d){
+        if(Box_Distance(node, x, y)>=best_d){
+            return best;
+        }
+
+        if(nodeLeft[node]<0){
+            for(int p=nodeStart[node]; p<nodeEnd[node]; p++){
+                double d = Piece_Distance(items[p], x, y);
+                if(d<best_d){
+                    best = items[p];
+                    best_d = d;
+                }
+            }
+            return best;
+        }
+
+        //Nearer child first, so the further one is more likely to be skipped
+        int first = nodeLeft[node], second = nodeRight[node];
+        if(Box_Distance(second, x, y)<Box_Distance(first, x, y)){
+            first = nodeRight[node];
+            second = nodeLeft[node];
+        }
+        int found = Nearest(first, x, y, best, best_d);
+        if(found!=best){
+            best = found;
+            best_d = Piece_Distance(best, x, y);
+        }
+        return Nearest(second, x, y, best, best_d);
+    }
+
+    /**
+     * Count how many times the horizontal line running from a point in the
+     * +x direction crosses the pieces in a subtree
+     * @param node root of subtree
+     * @param x x position
+     * @param y y position
+     * @return number of crossings
+     */
+    private int Crossings(int node, double x, double y){
+        int b = 4*node;
+        if(nodeBox[b+1]<x || y<nodeBox[b+2] || y>nodeBox[b+3]){
+            return 0;
+        }
+        if(nodeLeft[node]>=0){
+            return Crossings(nodeLeft[node], x, y)+Crossings(nodeRight[node], x, y);
+        }
+
+        int count = 0;
+        for(int p=nodeStart[node]; p<nodeEnd[node]; p++){
+            int k = items[p];
+            if(kind[k]==SEGMENT){
+                if((ay[k]>y)!=(by[k]>y) && x<ax[k]+(y-ay[k])*(bx[k]-ax[k])/(by[k]-ay[k])){
+                    count++;
+                }
+                continue;
+            }
+            double h = rad[k]*rad[k]-(y-cy[k])*(y-cy[k]);
+            if(h<=0){
+                continue;
+            }
+            double dx = Math.sqrt(h);
+            if(cx[k]-dx>x && In_Sweep(k, cx[k]-dx, y)){
+                count++;
+            }
+            if(cx[k]+dx>x && In_Sweep(k, cx[k]+dx, y)){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check if a point is inside the billiard
+     * @param x x position
+     * @param y y position
+     * @return if the point is inside
+     */
+    private boolean Inside(double x, double y){
+        return (Crossings(0, x, y)&1)==1;
+    }
+
+    @Override
+    protected void Normal(int type, double x, double y, Vec2 normal) {
+        int k = type-1;
+        Nearest_Point(k, x, y, normal);
+        double qx = normal.x, qy = normal.y;
+
+        //Normal pointing to the billiard side of the piece at the nearest point
+        double lx, ly;
+        if(kind[k]==SEGMENT){
+            lx = ay[k]-by[k];
+            ly = bx[k]-ax[k];
+        }
+        else{
+            lx = Math.copySign(1, sweep[k])*(cx[k]-qx);
+            ly = Math.copySign(1, sweep[k])*(cy[k]-qy);
+        }
+
+        //Away from the nearest point, which also covers the ends of pieces
+        double dx = x-qx, dy = y-qy;
+        if(dx==0 && dy==0){
+            normal.set(lx, ly).unit();
+            return;
+        }
+        if(dx*lx+dy*ly<0){
+            dx = -dx;
+            dy = -dy;
+        }
+        normal.set(dx, dy).unit();
+    }
+
+    @Override
+    public boolean Contact(double x, double y, double vx, double vy, double radius, Contact contact){
+        contact.type = Contact.NONE;
+        contact.rewind = Double.NaN;
+        if(Clear(x, y, radius)){
+            return false;
+        }
+        //The contact's normal is free to use as scratch until it is set
+        First_Touch(0, x, y, vx, vy, radius, contact, contact.normal);
+
+        //Not moving into any piece, so use the nearest
+        if(contact.type==Contact.NONE){
+            int k = Nearest(0, x, y, -1, radius);
+            if(k<0){
+                return false;
+            }
+            contact.type = k+1;
+            contact.rewind = Piece_Rewind(k, x, y, vx, vy, radius, contact.times);
+        }
+        double t = contact.isValid() ? contact.rewind : 0;
+        Normal(contact.type, x-vx*t, y-vy*t, contact.normal);
+        return true;
+    }
+
+    /**
+     * Search a subtree for pieces a ball is touching and was moving into 
+     * when it first touched them, keeping the one touched longest ago
+     * @param node root of subtree
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param radius radius of the ball
+     * @param contact best contact so far, updated with the type and rewind
+     * time of any better one, whose candidate times are used as scratch
+     * @param normal scratch space
+     */
+    private void First_Touch(int node, double x, double y, double vx, double vy, double radius, Contact contact, Vec2 normal){
+        if(Box_Distance(node, x, y)>=radius){
+            return;
+        }
+        if(nodeLeft[node]>=0){
+            First_Touch(nodeLeft[node], x, y, vx, vy, radius, contact, normal);
+            First_Touch(nodeRight[node], x, y, vx, vy, radius, contact, normal);
+            return;
+        }
+
+        for(int p=nodeStart[node]; p<nodeEnd[node]; p++){
+            int k = items[p];
+            if(Piece_Distance(k, x, y)>=radius){
+                continue;
+            }
+            double s = Piece_Rewind(k, x, y, vx, vy, radius, contact.times);
+            if(!(s>=0 && s<Double.POSITIVE_INFINITY) || (contact.type!=Contact.NONE && s<=contact.rewind)){
+                continue;
+            }
+            Normal(k+1, x-vx*s, y-vy*s, normal);
+            if(vx*normal.x+vy*normal.y<0){
+                contact.type = k+1;
+                contact.rewind = s;
+            }
+        }
+    }
+
+    @Override
+    protected int Contact_Type(double x, double y, double radius) {
+        int k = Nearest(0, x, y, -1, radius);
+        return k<0 ? Contact.NONE : k+1;
+    }
+
+    @Override
+    protected double Rewind_Time(int type, double x, double y, double vx, double vy, double radius) {
+        return Piece_Rewind(type-1, x, y, vx, vy, radius, rewindTimes);
+    }
+
+    /**
+     * Calculate how long ago a ball first touched a piece, going back along
+     * its path
+     * @param k index of piece
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param radius radius of the ball
+     * @param times scratch space for at least 12 candidate times
+     * @return time since first contact, or NaN if there is none
+     */
+    private double Piece_Rewind(int k, double x, double y, double vx, double vy, double radius, double times[]){
+        int n = Piece_Times(k, x, y, -vx, -vy, radius, times, 0);
+
+        //Most recent time, going backwards, that the ball stopped touching
+        //the piece
+        double nudge = 1e-9/Vec2.magnitude(vx, vy), best = Double.POSITIVE_INFINITY;
+        for(int p=0; p<n; p++){
+            double s = times[p];
+            if(s>=0 && s<best && Piece_Distance(k, x-vx*(s+nudge), y-vy*(s+nudge))>=radius){
+                best = s;
+            }
+        }
+        return best<Double.POSITIVE_INFINITY ? best : Double.NaN;
+    }
+
+    @Override
+    public double Distance(double x, double y) {
+        int k = Nearest(0, x, y, -1, Double.POSITIVE_INFINITY);
+        double d = Piece_Distance(k, x, y);
+        return Inside(x, y) ? d : -d;
+    }
+
+    @Override
+    public double Next_Hit_Time(double x, double y, double vx, double vy, double radius, Contact contact){
+        contact.type = Contact.NONE;
+        contact.rewind = Double.NaN;
+        double speed = Vec2.magnitude(vx, vy);
+        if(speed==0){
+            return Double.POSITIVE_INFINITY;
+        }
+        double horizon = (Vec2.magnitude(bounds[1]-bounds[0], bounds[3]-bounds[2])+2*radius)/speed;
+        double nudge = HIT_TOL/speed;
+        double t = Path_Hit(0, x, y, vx, vy, radius, nudge, horizon, contact);
+        if(t<=horizon){
+            Normal(contact.type, x+vx*(t+nudge), y+vy*(t+nudge), contact.normal);
+            return t;
+        }
+        contact.type = Contact.NONE;
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Find the earliest time a moving ball starts touching any piece in a 
+     * subtree while moving into it, looking only at pieces whose box the 
+     * ball passes within its radius of before the best time so far
+     * @param node root of subtree
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param radius radius of the ball
+     * @param nudge time past each candidate time to check for contact
+     * @param best earliest hit found so far
+     * @param contact scratch space, with type set to the piece hit at the
+     * earliest time found
+     * @return earliest hit found
+     */
+    private double Path_Hit(int node, double x, double y, double vx, double vy, double radius, double nudge, double best, Contact contact){
+        //Clip the path to the box grown by the radius, one axis at a time
+        int b = 4*node;
+        double t0 = 0, t1 = best;
+        for(int axis=0; axis<2; axis++){
+            double p = axis==0 ? x : y, v = axis==0 ? vx : vy;
+            double lo = nodeBox[b+2*axis]-radius, hi = nodeBox[b+2*axis+1]+radius;
+            if(v==0){
+                if(p<lo || p>hi){
+                    return best;
+                }
+                continue;
+            }
+            double ta = (lo-p)/v, tb = (hi-p)/v;
+            t0 = Math.max(t0, Math.min(ta, tb));
+            t1 = Math.min(t1, Math.max(ta, tb));
+            if(t0>t1){
+                return best;
+            }
+        }
+
+        if(nodeLeft[node]>=0){
+            best = Path_Hit(nodeLeft[node], x, y, vx, vy, radius, nudge, best, contact);
+            return Path_Hit(nodeRight[node], x, y, vx, vy, radius, nudge, best, contact);
+        }
+        for(int p=nodeStart[node]; p<nodeEnd[node]; p++){
+            int k = items[p];
+            //Touching and moving into the piece changes only at these times,
+            //so check just after each, and now
+            double times[] = contact.times;
+            int n = Piece_Times(k, x, y, vx, vy, radius, times, 0);
+            times[n++] = -nudge;
+            for(int q=0; q<n; q++){
+                double t = Math.max(times[q], 0);
+                if(times[q]<-nudge || t>=best){
+                    continue;
+                }
+                double px = x+vx*(t+nudge), py = y+vy*(t+nudge);
+                if(Piece_Distance(k, px, py)<radius){
+                    Normal(k+1, px, py, contact.normal);
+                    if(vx*contact.normal.x+vy*contact.normal.y<0){
+                        best = t;
+                        contact.type = k+1;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * List the times at which a moving ball starts or stops touching a
+     * piece, i.e. crosses the lines and circles a ball radius from it, and
+     * the times it is closest to the circles' centres
+     * @param k index of piece
+     * @param x x position of the centre of the ball
+     * @param y y position of the centre of the ball
+     * @param vx x velocity of the ball
+     * @param vy y velocity of the ball
+     * @param radius radius of the ball
+     * @param times list to add up to 12 times to
+     * @param n number of times already listed
+     * @return new number of times listed
+     */
+    private int Piece_Times(int k, double x, double y, double vx, double vy, double radius, double times[], int n){
+        if(kind[k]==SEGMENT){
+            double ex = bx[k]-ax[k], ey = by[k]-ay[k];
+            double len = Vec2.magnitude(ex, ey);
+            double s0 = (-ey*(x-ax[k])+ex*(y-ay[k]))/len, sv = (-ey*vx+ex*vy)/len;
+            if(sv!=0){
+                times[n++] = (radius-s0)/sv;
+                times[n++] = (-radius-s0)/sv;
+            }
+        }
+        else{
+            n = Circle_Crossings(x-cx[k], y-cy[k], vx, vy, rad[k]+radius, times, n);
+            if(rad[k]>radius){
+                n = Circle_Crossings(x-cx[k], y-cy[k], vx, vy, rad[k]-radius, times, n);
+            }
+        }
+        n = Circle_Crossings(x-ax[k], y-ay[k], vx, vy, radius, times, n);
+        return Circle_Crossings(x-bx[k], y-by[k], vx, vy, radius, times, n);
+    }
+
+    @Override
+    public void Draw() {
+        for(int k=0; k<n_pieces; k++){
+            if(kind[k]==SEGMENT){
+                StdDraw.line(ax[k], ay[k], bx[k], by[k]);
+            }
+            else{
+                double from = Math.toDegrees(Math.min(start[k], start[k]+sweep[k]));
+                StdDraw.arc(cx[k], cy[k], rad[k], from, from+Math.toDegrees(Math.abs(sweep[k])));
+            }
+        }
+    }
+
+    /**
+     * Description of boundary as a String
+     * @return name of boundary type, then each piece as S or A followed by
+     * its values
+     */
+    public String toString(){
+        StringBuilder sb = new StringBuilder("Composite");
+        for(double segment[]: segments){
+            sb.append(", S");
+            for(double v: segment){
+                sb.append(", ").append(v);
+            }
+        }
+        for(double arc[]: arcs){
+            sb.append(", A");
+            for(double v: arc){
+                sb.append(", ").append(v);
+            }
+        }
+        return sb.toString();
+    }
+}
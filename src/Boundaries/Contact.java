@@ -0,0 +1,45 @@
+package Boundaries;
+
+import Physics.Vec2;
+
+/**
+ * Result of a contact query on a Boundary: which part of the wall a ball is
+ * touching, how long ago it first touched it, and the surface normal at the
+ * point of first contact. Also holds the scratch space for Next_Hit_Time.
+ *
+ * Owned and reused by the caller, so a boundary can be queried from several
+ * threads at once as long as each thread has its own Contact.
+ *
+ * @author cjcode975
+ */
+public final class Contact {
+
+    /**
+     * Type of a contact when the ball is not touching the wall. Other types
+     * are specific to each boundary shape
+     */
+    public static final int NONE = 0;
+
+    //Part of the wall being touched
+    public int type = NONE;
+
+    //Time since the ball first touched the wall, or NaN if there is no valid
+    //time
+    public double rewind = Double.NaN;
+
+    //Unit normal to the wall at the point of first contact, pointing into
+    //the billiard
+    public final Vec2 normal = new Vec2();
+
+    //Scratch space for the candidate times listed by Next_Hit_Time
+    final double times[] = new double[Boundary.MAX_CANDIDATES];
+
+    /**
+     * Check if the contact can be resolved, i.e. the ball is touching the
+     * wall and a valid rewind time was found
+     * @return if the contact is valid
+     */
+    public boolean isValid(){
+        return type!=NONE && rewind>=0 && rewind<Double.POSITIVE_INFINITY;
+    }
+}
@@ -2,7 +2,7 @@
 package Boundaries;
 
 import Physics.Formulae;
-import Physics.Vector;
+import Physics.Vec2;
 import std.StdDraw;
 
 /**
@@ -17,7 +17,8 @@ public class Dispersive extends Boundary {
     
     private double rad;    
     
-    private Vector centrepoints[][] = new Vector[2][2];
+    //Contact type: touching one of the four circles
+    private static final int ARC = 1;
     
     public Dispersive(double radius){
         rad = radius;
@@ -25,30 +26,76 @@ public class Dispersive extends Boundary {
         bounds[1] = rad;
         bounds[2] = -rad;
         bounds[3] = rad;
-        
-        for(int i=0; i<=1; i++){
-            for(int j=0; j<=1; j++){
-                double dist[] = {rad*(2*i-1),rad*(2*j-1)};
-                centrepoints[i][j] = new Vector(dist);
-            }
-        }
+    }
+    
+    /**
+     * Get the coordinate of the centre of the nearest of the four circles
+     * along one axis
+     * @param c coordinate of the point along that axis
+     * @return coordinate of the circle centre
+     */
+    private double centre(double c){
+        return c<0 ? -rad : rad;
     }
 
     @Override
-    public Vector Normal(Vector loc) {        
-        return loc.sub(centrepoints[loc.get(0)<0?0:1][loc.get(1)<0?0:1]).unit();
+    protected void Normal(int type, double x, double y, Vec2 normal) {        
+        normal.set(x-centre(x), y-centre(y)).unit();
     }
 
     @Override
-    public boolean OutOfBounds(Vector loc, double radius) {
-        Vector y = loc.sub(centrepoints[loc.get(0)<0?0:1][loc.get(1)<0?0:1]);
+    protected int Contact_Type(double x, double y, double radius) {
+        double dx = x-centre(x), dy = y-centre(y);
         
-        return y.dot(y)<(rad+radius)*(rad+radius);
+        return dx*dx+dy*dy<(rad+radius)*(rad+radius) ? ARC : Contact.NONE;
     }
 
     @Override
-    public double Rewind_Time(Vector loc, Vector vel, double radius) {
-        return Formulae.whenCirclesIntersected(loc, centrepoints[loc.get(0)<0?0:1][loc.get(1)<0?0:1], vel, new Vector(2), radius, rad);
+    protected double Rewind_Time(int type, double x, double y, double vx, double vy, double radius) {
+        return Formulae.whenCirclesIntersected(x-centre(x), y-centre(y), vx, vy, radius, rad);
+    }
+
+    @Override
+    public double Distance(double x, double y){
+        return Vec2.magnitude(x-centre(x), y-centre(y))-rad;
+    }
+
+    @Override
+    protected int Hit_Candidates(double x, double y, double vx, double vy, double radius, double times[]){
+        //Any of the four arcs, and the quadrant lines where the nearest one changes
+        int n = 0;
+        for(int k=0; k<4; k++){
+            double cx = (k&1)==0 ? -rad : rad, cy = (k&2)==0 ? -rad : rad;
+            n = Circle_Crossings(x-cx, y-cy, vx, vy, rad+radius, times, n);
+        }
+        n = Line_Crossing(x, vx, 0, times, n);
+        n = Line_Crossing(y, vy, 0, times, n);
+        return n;
+    }
+
+    @Override
+    public void Bounce_All(double x[], double y[], double vx[], double vy[], double radius[], int from, int to){
+        for(int i=from; i<to; i++){
+            double r = radius[i];
+            if(Clear(x[i], y[i], r)){
+                continue;
+            }
+            
+            double dx = x[i]-centre(x[i]), dy = y[i]-centre(y[i]);
+            if(!(dx*dx+dy*dy<(rad+r)*(rad+r))){
+                continue;
+            }
+            
+            double dt = Formulae.whenCirclesIntersected(dx, dy, vx[i], vy[i], r, rad);
+            if(!Valid(dt)){
+                continue;
+            }
+            
+            double x0 = x[i]-vx[i]*dt, y0 = y[i]-vy[i]*dt;
+            double nx = x0-centre(x0), ny = y0-centre(y0);
+            double inv = 1/Vec2.magnitude(nx, ny);
+            Reflect(x, y, vx, vy, i, dt, nx*inv, ny*inv);
+        }
     }
 
     @Override
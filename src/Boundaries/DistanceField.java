@@ -0,0 +1,99 @@
+package Boundaries;
+
+import Physics.Vec2;
+
+/**
+ * Signed distance to the wall of a boundary, sampled once on a square grid
+ * covering the bounding box and read back with bilinear interpolation.
+ * Distances are positive inside the billiard.
+ *
+ * The exact signed distance changes by at most the distance moved, so an
+ * interpolated value is never more than one cell diagonal above the true
+ * distance. Lower_Bound subtracts this, giving a value the wall is certainly
+ * no closer than, which is what is needed to skip exact wall tests safely.
+ *
+ * @author cjcode975
+ */
+public class DistanceField {
+
+    private final int nx, ny;
+    private final double corner_x, corner_y, spacing, diagonal;
+
+    //Distance at node (i,j), stored at j*(nx+1)+i
+    private final double dist[];
+
+    /**
+     * Sample the distance to the wall of a boundary, with one unit of margin
+     * around its bounding box
+     * @param boundary boundary to sample
+     * @param grid_spacing distance between samples
+     */
+    public DistanceField(Boundary boundary, double grid_spacing){
+        double bounds[] = boundary.getBounds();
+        spacing = grid_spacing;
+        diagonal = Math.sqrt(2)*spacing;
+
+        corner_x = bounds[0]-1;
+        corner_y = bounds[2]-1;
+        nx = (int)Math.ceil((bounds[1]+1-corner_x)/spacing);
+        ny = (int)Math.ceil((bounds[3]+1-corner_y)/spacing);
+
+        dist = new double[(nx+1)*(ny+1)];
+        for(int j=0; j<=ny; j++){
+            for(int i=0; i<=nx; i++){
+                dist[j*(nx+1)+i] = boundary.Distance(corner_x+i*spacing, corner_y+j*spacing);
+            }
+        }
+    }
+
+    /**
+     * Get the interpolated signed distance to the wall at a point
+     * @param x x position
+     * @param y y position
+     * @return distance, positive inside the billiard, or negative infinity
+     * outside the sampled area
+     */
+    public double Distance(double x, double y){
+        double u = (x-corner_x)/spacing, v = (y-corner_y)/spacing;
+        if(!(u>=0 && u<nx && v>=0 && v<ny)){
+            return Double.NEGATIVE_INFINITY;
+        }
+        int i = (int)u, j = (int)v;
+        double fu = u-i, fv = v-j;
+        int k = j*(nx+1)+i;
+        double bottom = dist[k]+fu*(dist[k+1]-dist[k]);
+        double top = dist[k+nx+1]+fu*(dist[k+nx+2]-dist[k+nx+1]);
+        return bottom+fv*(top-bottom);
+    }
+
+    /**
+     * Get a distance which the wall is certainly no closer than
+     * @param x x position
+     * @param y y position
+     * @return lower bound on the signed distance to the wall
+     */
+    public double Lower_Bound(double x, double y){
+        return Distance(x, y)-diagonal;
+    }
+
+    /**
+     * Get the gradient of the interpolated distance, which points away from
+     * the nearest wall
+     * @param x x position
+     * @param y y position
+     * @param gradient Vec2 to write the gradient into, set to zero outside
+     * the sampled area
+     */
+    public void Gradient(double x, double y, Vec2 gradient){
+        double u = (x-corner_x)/spacing, v = (y-corner_y)/spacing;
+        if(!(u>=0 && u<nx && v>=0 && v<ny)){
+            gradient.set(0, 0);
+            return;
+        }
+        int i = (int)u, j = (int)v;
+        double fu = u-i, fv = v-j;
+        int k = j*(nx+1)+i;
+        double d00 = dist[k], d10 = dist[k+1], d01 = dist[k+nx+1], d11 = dist[k+nx+2];
+        gradient.set(((d10-d00)*(1-fv)+(d11-d01)*fv)/spacing, ((d01-d00)*(1-fu)+(d11-d10)*fu)/spacing);
+    }
+}
@@ -5,10 +5,19 @@
  */
 package Boundaries;
 
-import Physics.Vector;
+import Physics.Formulae;
+import Physics.Vec2;
 import std.StdDraw;
 
 /**
+ * Class defining an elliptical boundary, centred on the origin with its axes
+ * along x and y.
+ * 
+ * The wall a ball of radius r can reach is not an ellipse, so contacts are
+ * found from the distance to the nearest point of the ellipse, and times by
+ * bisection. The billiard is convex, so along any straight path the distance
+ * to the wall rises to a single maximum and then falls, which keeps the 
+ * bisections well defined.
  *
  * @author My Laptop
  */
@@ -16,7 +25,16 @@ public class Ellipse extends Boundary{
     
     double ra, rb;
     
-    Vector crossing_point;
+    //Contact type: touching the wall
+    private static final int WALL = 1;
+    
+    //Iterations used to find the nearest point on the ellipse, and bisection
+    //steps used for times
+    private static final int NEAREST_ITERATIONS = 8;
+    private static final int BISECTIONS = 60;
+    
+    //Scratch space for the nearest point on the ellipse, for each thread
+    private static final ThreadLocal<Vec2> NEAREST = ThreadLocal.withInitial(Vec2::new);
     
     public Ellipse(double width, double height){
         ra = width/2.0;
@@ -27,20 +45,157 @@ public class Ellipse extends Boundary{
         bounds[2] = -rb;
         bounds[3] = rb;
     }
+    
+    /**
+     * Find the point on the ellipse nearest to a given point, iterating on 
+     * the centre of curvature of the current estimate
+     * @param x x position
+     * @param y y position
+     * @param nearest Vec2 to write the nearest point into
+     * @return nearest
+     */
+    private Vec2 Nearest(double x, double y, Vec2 nearest){
+        double px = Math.abs(x), py = Math.abs(y);
+        double tx = Math.sqrt(0.5), ty = tx;
+        double ab = ra*ra-rb*rb;
+        
+        for(int k=0; k<NEAREST_ITERATIONS; k++){
+            double ex = ab*tx*tx*tx/ra, ey = -ab*ty*ty*ty/rb;
+            double r = Vec2.magnitude(ra*tx-ex, rb*ty-ey);
+            double qx = px-ex, qy = py-ey;
+            double q = Vec2.magnitude(qx, qy);
+            double scale = q>0 ? r/q : 0;
+            tx = Math.min(1, Math.max(0, (qx*scale+ex)/ra));
+            ty = Math.min(1, Math.max(0, (qy*scale+ey)/rb));
+            double t = Vec2.magnitude(tx, ty);
+            tx /= t;
+            ty /= t;
+        }
+        return nearest.set(Math.copySign(ra*tx, x), Math.copySign(rb*ty, y));
+    }
+    
+    /**
+     * Check if a point is inside the ellipse
+     * @param x x position
+     * @param y y position
+     * @return if the point is inside or on the ellipse
+     */
+    private boolean Inside(double x, double y){
+        return (x*x)/(ra*ra)+(y*y)/(rb*rb)<=1;
+    }
+
+    @Override
+    protected void Normal(int type, double x, double y, Vec2 normal) {
+        Nearest(x, y, normal);
+        normal.set(-normal.x/(ra*ra), -normal.y/(rb*rb)).unit();
+    }
+
+    @Override
+    protected int Contact_Type(double x, double y, double radius) {
+        return Distance(x, y)<radius ? WALL : Contact.NONE;
+    }
 
     @Override
-    public Vector Normal(Vector loc) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    protected double Rewind_Time(int type, double x, double y, double vx, double vy, double radius) {
+        //Time back along the path until the centre reaches the wall
+        double s_wall = Exit_Time(x, y, -vx, -vy);
+        if(!(s_wall>0)){
+            return Double.NaN;
+        }
+        
+        //Distance to the wall is largest where the path backwards stops 
+        //moving away from the wall
+        double lo = 0, hi = s_wall;
+        for(int k=0; k<BISECTIONS; k++){
+            double mid = 0.5*(lo+hi);
+            if(Approaching(x-vx*mid, y-vy*mid, -vx, -vy)){
+                hi = mid;
+            }
+            else{
+                lo = mid;
+            }
+        }
+        double s_far = lo;
+        if(Distance(x-vx*s_far, y-vy*s_far)<radius){
+            return Double.NaN;
+        }
+        
+        //Last time the ball was clear of the wall
+        lo = 0;
+        hi = s_far;
+        for(int k=0; k<BISECTIONS; k++){
+            double mid = 0.5*(lo+hi);
+            if(Distance(x-vx*mid, y-vy*mid)<radius){
+                lo = mid;
+            }
+            else{
+                hi = mid;
+            }
+        }
+        return hi;
     }
 
     @Override
-    public boolean OutOfBounds(Vector loc, double radius) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    public double Distance(double x, double y) {
+        Vec2 nearest = Nearest(x, y, NEAREST.get());
+        double d = Vec2.magnitude(x-nearest.x, y-nearest.y);
+        return Inside(x, y) ? d : -d;
     }
 
     @Override
-    public double Rewind_Time(Vector loc, Vector vel, double radius) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    public double Next_Hit_Time(double x, double y, double vx, double vy, double radius, Contact contact){
+        contact.rewind = Double.NaN;
+        double t_wall = Exit_Time(x, y, vx, vy);
+        if(!(t_wall>0)){
+            return March_Hit_Time(x, y, vx, vy, radius, contact);
+        }
+        
+        //The ball is hitting the wall from some time until its centre 
+        //reaches the wall, so bisect for the start of that stretch
+        if(Hitting(x, y, vx, vy, radius, contact)){
+            return 0;
+        }
+        double lo = 0, hi = t_wall;
+        for(int k=0; k<BISECTIONS; k++){
+            double mid = 0.5*(lo+hi);
+            if(Hitting(x+vx*mid, y+vy*mid, vx, vy, radius, contact)){
+                hi = mid;
+            }
+            else{
+                lo = mid;
+            }
+        }
+        //Describe the hit, not the last point checked
+        Hitting(x+vx*hi, y+vy*hi, vx, vy, radius, contact);
+        return hi;
+    }
+    
+    /**
+     * Calculate how long until a point moving in a straight line leaves the
+     * ellipse
+     * @param x x position
+     * @param y y position
+     * @param vx x velocity
+     * @param vy y velocity
+     * @return time until the point crosses the ellipse moving outwards, or 
+     * NaN if it never does
+     */
+    private double Exit_Time(double x, double y, double vx, double vy){
+        double a2 = ra*ra, b2 = rb*rb;
+        return Formulae.largestRealRoot(vx*vx/a2+vy*vy/b2, 2*(x*vx/a2+y*vy/b2), x*x/a2+y*y/b2-1);
+    }
+    
+    /**
+     * Check if a point is moving towards the nearest part of the wall
+     * @param x x position
+     * @param y y position
+     * @param vx x velocity
+     * @param vy y velocity
+     * @return if the distance to the wall is falling
+     */
+    private boolean Approaching(double x, double y, double vx, double vy){
+        Vec2 nearest = Nearest(x, y, NEAREST.get());
+        return vx*nearest.x/(ra*ra)+vy*nearest.y/(rb*rb)>0;
     }
 
     @Override
@@ -48,4 +203,12 @@ public class Ellipse extends Boundary{
         StdDraw.ellipse(0, 0, ra, rb);
     }
     
+    /**
+     * Description of boundary as a String
+     * @return name of boundary type, width, height
+     */
+    public String toString(){
+        return "Ellipse, "+(2*ra)+", "+(2*rb);
+    }
+    
 }
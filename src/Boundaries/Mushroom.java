@@ -2,7 +2,7 @@
 package Boundaries;
 
 import Physics.Formulae;
-import Physics.Vector;
+import Physics.Vec2;
 import std.StdDraw;
 
 /**
@@ -14,7 +14,10 @@ public class Mushroom extends Boundary{
     
     double rad, wid, height;
     
-    boolean hit_circ, hit_circ_base, hit_base, hit_sides;
+    //Contact types: touching the top of the cap, the underside of the cap, 
+    //the sides of the stalk or the base of the stalk. A ball can touch both 
+    //a side and the base of the stalk at once
+    private static final int CAP = 1, CAP_BASE = 2, SIDES = 4, BASE = 8;
     
     public Mushroom(double radius, double stalk_width, double stalk_height){
         if(stalk_width>=2*radius){
@@ -35,55 +38,146 @@ public class Mushroom extends Boundary{
     }
 
     @Override
-    public Vector Normal(Vector loc) {
-        double normal[] = new double[2];
-        if(hit_circ_base || hit_base){ 
-            normal[1] = 1;
-            return new Vector(normal);
+    protected void Normal(int type, double x, double y, Vec2 normal) {
+        if((type&(CAP_BASE|BASE))!=0){ 
+            normal.set(0, 1);
         }
-        else if(hit_sides){
-            normal[0] = loc.get(0)<0?1:-1;
-            return new Vector(normal);
+        else if((type&SIDES)!=0){
+            normal.set(x<0?1:-1, 0);
+        }
+        else{
+            normal.set(-x, -y).unit();
         }
-        return loc.unit().scale(-1);
     }
 
     @Override
-    public boolean OutOfBounds(Vector loc, double radius) {
-        hit_circ = false;
-        hit_circ_base = false;
-        hit_sides = false;
-        hit_base = false;
+    protected int Contact_Type(double x, double y, double radius) {
+        int type = Contact.NONE;
         
-        if(loc.get(1)>0){
-            if(Math.abs(loc.get(0))>=wid && loc.get(1)<radius){ // hit the base of the cap
-                hit_circ_base = true;
+        if(y>0){
+            if(Math.abs(x)>=wid && y<radius){ // hit the base of the cap
+                type = CAP_BASE;
             }
-            else if(loc.dot(loc)>(rad-radius)*(rad-radius)){ //hit the top of the cap
-                hit_circ = true;
+            else if(x*x+y*y>(rad-radius)*(rad-radius)){ //hit the top of the cap
+                type = CAP;
             }
         }        
         else{
-            hit_sides = wid-Math.abs(loc.get(0))<radius; //hit the side of the stalk
-            hit_base = height+loc.get(1)<radius; //hit the base of the stalk
+            if(wid-Math.abs(x)<radius){ //hit the side of the stalk
+                type |= SIDES;
+            }
+            if(height+y<radius){ //hit the base of the stalk
+                type |= BASE;
+            }
         }
         
-        return hit_circ | hit_circ_base | hit_sides | hit_base;
+        return type;
     }
 
     @Override
-    public double Rewind_Time(Vector loc, Vector vel, double radius) {
-        if(hit_circ){
-            return Formulae.whenCirclesIntersected(loc, new Vector(2), vel, new Vector(2), -radius, rad);
+    protected double Rewind_Time(int type, double x, double y, double vx, double vy, double radius) {
+        if(type==CAP){
+            return Formulae.whenCirclesIntersected(x, y, vx, vy, -radius, rad);
         }
-        else if(hit_sides){
-            return (radius-wid+Math.abs(loc.get(0)))/Math.abs(vel.get(0));
+        else if((type&SIDES)!=0){
+            return (radius-wid+Math.abs(x))/Math.abs(vx);
         }
-        else if(hit_circ_base){
-            return (radius-loc.get(1))/Math.abs(vel.get(1));
+        else if(type==CAP_BASE){
+            return (radius-y)/Math.abs(vy);
         }
-        return -1*(radius-height-loc.get(1))/vel.get(1);
+        return -1*(radius-height-y)/vy;
+        
+    }
+
+    @Override
+    public double Distance(double x, double y){
+        double ax = Math.abs(x);
+        
+        //Distance to the arc of the cap, or to its ends below the x axis
+        double d = y>=0 ? Math.abs(Vec2.magnitude(x, y)-rad) : Vec2.magnitude(ax-rad, y);
+        
+        //Underside of the cap, side and base of the stalk
+        d = Math.min(d, Segment_Distance(ax, y, wid, 0, rad, 0));
+        d = Math.min(d, Segment_Distance(ax, y, wid, 0, wid, -height));
+        d = Math.min(d, Segment_Distance(ax, y, 0, -height, wid, -height));
         
+        boolean inside = y>0 ? Vec2.magnitude(x, y)<rad : (ax<wid && y>-height);
+        return inside ? d : -d;
+    }
+
+    @Override
+    protected int Hit_Candidates(double x, double y, double vx, double vy, double radius, double times[]){
+        int n = Line_Crossing(y, vy, 0, times, 0);
+        n = Line_Crossing(y, vy, radius, times, n);
+        n = Line_Crossing(y, vy, radius-height, times, n);
+        n = Line_Crossing(x, vx, wid, times, n);
+        n = Line_Crossing(x, vx, -wid, times, n);
+        n = Line_Crossing(x, vx, wid-radius, times, n);
+        n = Line_Crossing(x, vx, radius-wid, times, n);
+        n = Line_Crossing(x, vx, 0, times, n);
+        n = Circle_Crossings(x, y, vx, vy, rad-radius, times, n);
+        return n;
+    }
+
+    @Override
+    public void Bounce_All(double x[], double y[], double vx[], double vy[], double radius[], int from, int to){
+        for(int i=from; i<to; i++){
+            double r = radius[i];
+            if(Clear(x[i], y[i], r)){
+                continue;
+            }
+            
+            double dt, nx, ny;
+            
+            if(y[i]>0){
+                if(Math.abs(x[i])>=wid && y[i]<r){ //underside of the cap
+                    dt = (r-y[i])/Math.abs(vy[i]);
+                    if(!Valid(dt)){
+                        continue;
+                    }
+                    nx = 0;
+                    ny = 1;
+                }
+                else if(x[i]*x[i]+y[i]*y[i]>(rad-r)*(rad-r)){ //top of the cap
+                    dt = Formulae.whenCirclesIntersected(x[i], y[i], vx[i], vy[i], -r, rad);
+                    if(!Valid(dt)){
+                        continue;
+                    }
+                    double x0 = x[i]-vx[i]*dt, y0 = y[i]-vy[i]*dt;
+                    double inv = 1/Vec2.magnitude(-x0, -y0);
+                    nx = -x0*inv;
+                    ny = -y0*inv;
+                }
+                else{
+                    continue;
+                }
+            }
+            else{
+                boolean sides = wid-Math.abs(x[i])<r, base = height+y[i]<r;
+                if(sides){ //side of the stalk, possibly also the base
+                    dt = (r-wid+Math.abs(x[i]))/Math.abs(vx[i]);
+                }
+                else if(base){ //base of the stalk
+                    dt = -1*(r-height-y[i])/vy[i];
+                }
+                else{
+                    continue;
+                }
+                if(!Valid(dt)){
+                    continue;
+                }
+                if(base){
+                    nx = 0;
+                    ny = 1;
+                }
+                else{
+                    nx = x[i]-vx[i]*dt<0 ? 1 : -1;
+                    ny = 0;
+                }
+            }
+            
+            Reflect(x, y, vx, vy, i, dt, nx, ny);
+        }
     }
 
     @Override
@@ -1,7 +1,7 @@
 
 package Boundaries;
 
-import Physics.Vector;
+import Physics.Vec2;
 import std.StdDraw;
 
 /**
@@ -10,7 +10,8 @@ import std.StdDraw;
  */
 public class Rectangle extends Boundary{
     
-    private boolean coll_x, coll_y;
+    //Contact types: touching a side wall, the top or bottom, or both
+    private static final int WALL_X = 1, WALL_Y = 2;
     
     /**
      * Initialise a boundary rectangle that has dimension width x height
@@ -25,34 +26,89 @@ public class Rectangle extends Boundary{
     }
 
     @Override
-    public double Rewind_Time(Vector loc, Vector vel, double radius){
-        if(coll_x){
-            return (radius-bounds[1]+Math.abs(loc.get(0)))/Math.abs(vel.get(0));
+    protected double Rewind_Time(int type, double x, double y, double vx, double vy, double radius){
+        if((type&WALL_X)!=0){
+            return (radius-bounds[1]+Math.abs(x))/Math.abs(vx);
         }
         
-        return (radius-bounds[3]+Math.abs(loc.get(1)))/Math.abs(vel.get(1));
+        return (radius-bounds[3]+Math.abs(y))/Math.abs(vy);
     }    
     
     @Override
-    public Vector Normal(Vector loc) {
-        double normal[] = new double[2];
+    protected void Normal(int type, double x, double y, Vec2 normal) {
+        normal.set(0, 0);
         
-        if(coll_x){
-            normal[0] = loc.get(0)<0 ? 1 : -1;
+        if((type&WALL_X)!=0){
+            normal.x = x<0 ? 1 : -1;
         }
         
-        if(coll_y){
-            normal[1] = loc.get(1)<0 ? 1 : -1;
+        if((type&WALL_Y)!=0){
+            normal.y = y<0 ? 1 : -1;
         }
         
-        return (new Vector(normal)).unit();
+        normal.unit();
     }
     
     @Override
-    public boolean OutOfBounds(Vector loc, double radius) {
-        coll_x = (bounds[1]-Math.abs(loc.get(0)))<radius;
-        coll_y = (bounds[3]-Math.abs(loc.get(1)))<radius;
-        return coll_x | coll_y;
+    protected int Contact_Type(double x, double y, double radius) {
+        int type = Contact.NONE;
+        if((bounds[1]-Math.abs(x))<radius){
+            type |= WALL_X;
+        }
+        if((bounds[3]-Math.abs(y))<radius){
+            type |= WALL_Y;
+        }
+        return type;
+    }
+
+    @Override
+    public double Distance(double x, double y){
+        return Math.min(bounds[1]-Math.abs(x), bounds[3]-Math.abs(y));
+    }
+
+    @Override
+    protected int Hit_Candidates(double x, double y, double vx, double vy, double radius, double times[]){
+        double hx = bounds[1], hy = bounds[3];
+        int n = 0;
+        n = Line_Crossing(x, vx, hx-radius, times, n);
+        n = Line_Crossing(x, vx, radius-hx, times, n);
+        n = Line_Crossing(x, vx, 0, times, n);
+        n = Line_Crossing(y, vy, hy-radius, times, n);
+        n = Line_Crossing(y, vy, radius-hy, times, n);
+        n = Line_Crossing(y, vy, 0, times, n);
+        return n;
+    }
+
+    @Override
+    public void Bounce_All(double x[], double y[], double vx[], double vy[], double radius[], int from, int to){
+        double hx = bounds[1], hy = bounds[3];
+        for(int i=from; i<to; i++){
+            double ax = Math.abs(x[i]), ay = Math.abs(y[i]), r = radius[i];
+            boolean wall_x = hx-ax<r, wall_y = hy-ay<r;
+            if(!(wall_x | wall_y)){
+                continue;
+            }
+            
+            double dt = wall_x ? (r-hx+ax)/Math.abs(vx[i]) : (r-hy+ay)/Math.abs(vy[i]);
+            if(!Valid(dt)){
+                continue;
+            }
+            
+            double x0 = x[i]-vx[i]*dt, y0 = y[i]-vy[i]*dt;
+            double nx = wall_x ? (x0<0 ? 1 : -1) : 0;
+            double ny = wall_y ? (y0<0 ? 1 : -1) : 0;
+            double inv = 1/Vec2.magnitude(nx, ny);
+            Reflect(x, y, vx, vy, i, dt, nx*inv, ny*inv);
+        }
+    }
+
+    @Override
+    public void Bounce_All_Simd(double x[], double y[], double vx[], double vy[], double radius[], int from, int to){
+        if(WallKernels.SIMD==null){
+            Bounce_All(x, y, vx, vy, radius, from, to);
+            return;
+        }
+        WallKernels.SIMD.Bounce_Rectangle(this, bounds[1], bounds[3], x, y, vx, vy, radius, from, to);
     }
 
     @Override
@@ -6,8 +6,7 @@
 package Boundaries;
 
 import Physics.Formulae;
-import Physics.Vector;
-import java.util.ArrayList;
+import Physics.Vec2;
 import std.StdDraw;
 
 /**
@@ -20,8 +19,9 @@ public class Sinai extends Boundary{
     //Dimensions - radius of hole, half-side-length of box
     private double rad, size;
         
-    //Keep track of where the collision is happening
-    private boolean collide_with_circle, coll_x, coll_y;
+    //Contact types: touching the central hole, a side wall, or the top or 
+    //bottom
+    private static final int HOLE = 1, WALL_X = 2, WALL_Y = 4;
     
     public Sinai(double radius, double width){
         if(radius<=0 || width<=0){
@@ -41,53 +41,104 @@ public class Sinai extends Boundary{
     }
 
     @Override
-    public Vector Normal(Vector loc) {
-        double normal[] = new double[2];
-        if(collide_with_circle){
-            return loc.unit();
+    protected void Normal(int type, double x, double y, Vec2 normal) {
+        normal.set(0, 0);
+        if(type==HOLE){
+            normal.set(x, y).unit();
         }
-        else if(coll_x){
-            normal[0] = loc.get(0)<0 ? 1 : -1;
+        else if(type==WALL_X){
+            normal.x = x<0 ? 1 : -1;
         }
-        else if(coll_y){
-            normal[1] = loc.get(0)<0 ? 1 : -1;
+        else if(type==WALL_Y){
+            normal.y = y<0 ? 1 : -1;
         }
-        return new Vector(normal);
     }
 
     @Override
-    public boolean OutOfBounds(Vector loc, double radius) {
-        if(loc.dot(loc)<=(rad+radius)*(rad+radius)){
-            collide_with_circle = true;
-            return true;
+    protected int Contact_Type(double x, double y, double radius) {
+        if(x*x+y*y<=(rad+radius)*(rad+radius)){
+            return HOLE;
         }
-        else if(size-Math.abs(loc.get(0))<=radius){
-            coll_x = true;
-            coll_y = false;
-            collide_with_circle = false;
-            return true;            
+        else if(size-Math.abs(x)<=radius){
+            return WALL_X;
         }
-        else if(size-Math.abs(loc.get(1))<=radius){
-            coll_x = false;
-            coll_y = true;
-            collide_with_circle = false;
-            return true;
+        else if(size-Math.abs(y)<=radius){
+            return WALL_Y;
         }
         
-        return false;
+        return Contact.NONE;
     }
 
     @Override
-    public double Rewind_Time(Vector loc, Vector vel, double radius) {
-        if(collide_with_circle){
-            return Formulae.whenCirclesIntersected(loc, new Vector(2), vel, new Vector(2), radius, rad);
+    protected double Rewind_Time(int type, double x, double y, double vx, double vy, double radius) {
+        if(type==HOLE){
+            return Formulae.whenCirclesIntersected(x, y, vx, vy, radius, rad);
         }
         
-        if(coll_x){
-            return (radius-size+Math.abs(loc.get(0)))/Math.abs(vel.get(0));
+        if(type==WALL_X){
+            return (radius-size+Math.abs(x))/Math.abs(vx);
         }
         
-        return (radius-size+Math.abs(loc.get(1)))/Math.abs(vel.get(1));
+        return (radius-size+Math.abs(y))/Math.abs(vy);
+    }
+
+    @Override
+    public double Distance(double x, double y){
+        return Math.min(Vec2.magnitude(x, y)-rad, Math.min(size-Math.abs(x), size-Math.abs(y)));
+    }
+
+    @Override
+    protected int Hit_Candidates(double x, double y, double vx, double vy, double radius, double times[]){
+        int n = Circle_Crossings(x, y, vx, vy, rad+radius, times, 0);
+        n = Line_Crossing(x, vx, size-radius, times, n);
+        n = Line_Crossing(x, vx, radius-size, times, n);
+        n = Line_Crossing(x, vx, 0, times, n);
+        n = Line_Crossing(y, vy, size-radius, times, n);
+        n = Line_Crossing(y, vy, radius-size, times, n);
+        n = Line_Crossing(y, vy, 0, times, n);
+        return n;
+    }
+
+    @Override
+    public void Bounce_All(double x[], double y[], double vx[], double vy[], double radius[], int from, int to){
+        for(int i=from; i<to; i++){
+            double r = radius[i];
+            if(Clear(x[i], y[i], r)){
+                continue;
+            }
+            
+            double dt, nx = 0, ny = 0;
+            
+            if(x[i]*x[i]+y[i]*y[i]<=(rad+r)*(rad+r)){ //central hole
+                dt = Formulae.whenCirclesIntersected(x[i], y[i], vx[i], vy[i], r, rad);
+                if(!Valid(dt)){
+                    continue;
+                }
+                double x0 = x[i]-vx[i]*dt, y0 = y[i]-vy[i]*dt;
+                double inv = 1/Vec2.magnitude(x0, y0);
+                nx = x0*inv;
+                ny = y0*inv;
+            }
+            else if(size-Math.abs(x[i])<=r){ //side walls
+                dt = (r-size+Math.abs(x[i]))/Math.abs(vx[i]);
+                if(!Valid(dt)){
+                    continue;
+                }
+                nx = x[i]-vx[i]*dt<0 ? 1 : -1;
+            }
+            else if(size-Math.abs(y[i])<=r){ //top and bottom walls
+                dt = (r-size+Math.abs(y[i]))/Math.abs(vy[i]);
+                if(!Valid(dt)){
+                    continue;
+                }
+                ny = y[i]-vy[i]*dt<0 ? 1 : -1;
+            }
+            else{
+                continue;
+            }
+            
+            Reflect(x, y, vx, vy, i, dt, nx, ny);
+        }
     }
 
     @Override
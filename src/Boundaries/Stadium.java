@@ -1,7 +1,7 @@
 package Boundaries;
 
 import Physics.Formulae;
-import Physics.Vector;
+import Physics.Vec2;
 import std.StdDraw;
 
 /**
@@ -14,64 +14,132 @@ public class Stadium extends Boundary{
     
     private double rad, wid;
     
-    private boolean cc, cbw, ctw;
-    
-    private Vector cl, cr;
+    //Contact types: touching a circular cap, the bottom wall or the top wall
+    private static final int CAP = 1, BOTTOM = 2, TOP = 4;
     
     public Stadium(double radius, double box_width){
         rad = radius;
         
         wid = box_width/2.0;
         
-        double centrepoints[] = {-wid,0};
-        cl = new Vector(centrepoints);
-        centrepoints[0] = wid;
-        cr = new Vector(centrepoints);
-        
         bounds[0] = -wid-rad;
         bounds[1] = wid+rad;
         bounds[2] = -rad;
         bounds[3] = rad;
     }
 
+    /**
+     * Get the x coordinate of the centre of the nearest circular cap
+     * @param x x position of the point
+     * @return x coordinate of the cap centre
+     */
+    private double capCentre(double x){
+        return x<0 ? -wid : wid;
+    }
+
     @Override
-    public Vector Normal(Vector loc) {
-        if(cbw){
-            double temp[] = {0,1};
-            return new Vector(temp);
+    protected void Normal(int type, double x, double y, Vec2 normal) {
+        if(type==BOTTOM){
+            normal.set(0, 1);
+        }
+        else if(type==TOP){
+            normal.set(0, -1);
         }
-        else if(ctw){
-            double temp[] = {0,-1};
-            return new Vector(temp);
+        else{
+            normal.set(capCentre(x)-x, -y).unit();
         }
-        return loc.sub(loc.get(0)<0?cl:cr).unit().scale(-1);
     }
 
     @Override
-    public boolean OutOfBounds(Vector loc, double radius) {
-        cc = false;
-        cbw = false;
-        ctw = false;
-        if(Math.abs(loc.get(0))<wid){ //collide with the straight walls
-            cbw = rad-Math.abs(loc.get(1))<radius & loc.get(1)<0;
-            ctw = rad-Math.abs(loc.get(1))<radius & loc.get(1)>0;
+    protected int Contact_Type(double x, double y, double radius) {
+        if(Math.abs(x)<wid){ //collide with the straight walls
+            if(rad-Math.abs(y)<radius){
+                if(y<0){
+                    return BOTTOM;
+                }
+                if(y>0){
+                    return TOP;
+                }
+            }
         }
-        else if(loc.sub(loc.get(0)<0?cl:cr).magnitude()>rad-radius){ //collide with one of the circular sections
-            cc = true;
+        else if(Vec2.magnitude(x-capCentre(x), y)>rad-radius){ //collide with one of the circular sections
+            return CAP;
         }
-        return cc | cbw | ctw;
+        return Contact.NONE;
     }
 
     @Override
-    public double Rewind_Time(Vector loc, Vector vel, double radius) {
+    protected double Rewind_Time(int type, double x, double y, double vx, double vy, double radius) {
         //Collide with the circular parts
-        if(cc){
-            Vector loc_prime = loc.sub(loc.get(0)<0?cl:cr);
-            return Formulae.whenCirclesIntersected(loc_prime, new Vector(2), vel, new Vector(2), -radius, rad);
+        if(type==CAP){
+            return Formulae.whenCirclesIntersected(x-capCentre(x), y, vx, vy, -radius, rad);
         }       
         
         //Collide with the straight walls
-        return (radius-rad+Math.abs(loc.get(1)))/Math.abs(vel.get(1));
+        return (radius-rad+Math.abs(y))/Math.abs(vy);
+    }
+
+    @Override
+    public double Distance(double x, double y){
+        if(Math.abs(x)<wid){
+            return rad-Math.abs(y);
+        }
+        return rad-Vec2.magnitude(x-capCentre(x), y);
+    }
+
+    @Override
+    protected int Hit_Candidates(double x, double y, double vx, double vy, double radius, double times[]){
+        int n = Line_Crossing(x, vx, wid, times, 0);
+        n = Line_Crossing(x, vx, -wid, times, n);
+        n = Line_Crossing(x, vx, 0, times, n);
+        n = Line_Crossing(y, vy, rad-radius, times, n);
+        n = Line_Crossing(y, vy, radius-rad, times, n);
+        n = Line_Crossing(y, vy, 0, times, n);
+        n = Circle_Crossings(x-wid, y, vx, vy, rad-radius, times, n);
+        n = Circle_Crossings(x+wid, y, vx, vy, rad-radius, times, n);
+        return n;
+    }
+
+    @Override
+    public void Bounce_All(double x[], double y[], double vx[], double vy[], double radius[], int from, int to){
+        for(int i=from; i<to; i++){
+            double r = radius[i];
+            if(Clear(x[i], y[i], r)){
+                continue;
+            }
+            
+            double dt, nx, ny;
+            
+            if(Math.abs(x[i])<wid){ //straight walls
+                if(!(rad-Math.abs(y[i])<r) || y[i]==0){
+                    continue;
+                }
+                dt = (r-rad+Math.abs(y[i]))/Math.abs(vy[i]);
+                if(!Valid(dt)){
+                    continue;
+                }
+                nx = 0;
+                ny = y[i]<0 ? 1 : -1;
+            }
+            else{ //circular caps
+                double cx = capCentre(x[i]);
+                if(!(Vec2.magnitude(x[i]-cx, y[i])>rad-r)){
+                    continue;
+                }
+                dt = Formulae.whenCirclesIntersected(x[i]-cx, y[i], vx[i], vy[i], -r, rad);
+                if(!Valid(dt)){
+                    continue;
+                }
+                double x0 = x[i]-vx[i]*dt, y0 = y[i]-vy[i]*dt;
+                nx = capCentre(x0)-x0;
+                ny = -y0;
+                double inv = 1/Vec2.magnitude(nx, ny);
+                nx *= inv;
+                ny *= inv;
+            }
+            
+            Reflect(x, y, vx, vy, i, dt, nx, ny);
+        }
     }
 
     @Override
@@ -0,0 +1,62 @@
+package Boundaries;
+
+/**
+ * Wall kernels for the simplest shapes which test several balls against the
+ * wall at once. The only implementation, SimdWalls, uses the incubating Java
+ * Vector API and lives in the separate src-jdk21 source root, so it is
+ * looked up by name and this tree still builds without it.
+ *
+ * @author cjcode975
+ */
+interface WallKernels {
+
+    //Kernels to use, or null if the Vector API or SimdWalls is missing
+    static final WallKernels SIMD = Load();
+
+    /**
+     * Bounce every ball in a range that is touching the walls of a 
+     * rectangle
+     * @param box rectangle, used to bounce balls which are touching
+     * @param hx half width of the rectangle
+     * @param hy half height of the rectangle
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param vx x velocities of the balls
+     * @param vy y velocities of the balls
+     * @param radius radii of the balls
+     * @param from index of first ball
+     * @param to index after the last ball
+     */
+    void Bounce_Rectangle(Rectangle box, double hx, double hy, double x[], double y[], double vx[], double vy[], double radius[], int from, int to);
+
+    /**
+     * Bounce every ball in a range that is touching the wall of a circle
+     * @param circle circle, used to bounce balls which are touching
+     * @param rad radius of the circle
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param vx x velocities of the balls
+     * @param vy y velocities of the balls
+     * @param radius radii of the balls
+     * @param from index of first ball
+     * @param to index after the last ball
+     */
+    void Bounce_Circle(Circle circle, double rad, double x[], double y[], double vx[], double vy[], double radius[], int from, int to);
+
+    /**
+     * Look up the Vector API kernels, if the jdk.incubator.vector module is
+     * present and SimdWalls was built
+     * @return kernels, or null if they can't be used
+     */
+    private static WallKernels Load(){
+        if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()){
+            return null;
+        }
+        try{
+            return (WallKernels)Class.forName("Boundaries.SimdWalls").getDeclaredConstructor().newInstance();
+        }
+        catch(ReflectiveOperationException | LinkageError e){
+            return null;
+        }
+    }
+}
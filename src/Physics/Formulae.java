@@ -17,24 +17,103 @@ public class Formulae {
      * @return all real roots
      */
     public static ArrayList<Double> quadraticRealRoots(double a, double b, double c){
-        double disc = b*b-4*a*c;        
-        if(disc<0){
+        double temp[] = new double[2];
+        int n_roots = quadraticRealRoots(a, b, c, temp);
+        if(n_roots==0){
             throw new IllegalArgumentException("No real solutions");
         }
         ArrayList<Double> roots = new ArrayList<Double>();
-        //Repeated root up to machine precision
-        if(disc<1e-10){
-            roots.add(-b/(2*a));
-        }
-        else{
-            disc = Math.sqrt(disc);
-            roots.add((-b+disc)/(2*a));
-            roots.add((-b-disc)/(2*a));
+        for(int i=0; i<n_roots; i++){
+            roots.add(temp[i]);
         }
         
         return roots;
     }
     
+    /**
+     * Find all real roots of a quadratic equation ax^2+bx+c=0 without 
+     * allocating or throwing. Uses the cancellation-free form 
+     * q = -(b+sign(b)sqrt(disc))/2, roots q/a and c/q, so a small root is not 
+     * lost when b^2 is much larger than 4ac. Only an exactly zero 
+     * discriminant is taken as a repeated root, so the result does not 
+     * depend on the units the coefficients are in
+     * @param a x^2 coefficient
+     * @param b x coefficient
+     * @param c x^0 coefficient
+     * @param roots array of length at least 2 to write the roots into, in 
+     * ascending order
+     * @return number of real roots found, 0, 1 or 2
+     */
+    public static int quadraticRealRoots(double a, double b, double c, double roots[]){
+        return quadraticRealRoots(a, b, c, roots, 0);
+    }
+    
+    /**
+     * Find the largest real root of a quadratic equation ax^2+bx+c=0, the 
+     * same as the last root given by quadraticRealRoots, without needing an
+     * array to write the roots into
+     * @param a x^2 coefficient
+     * @param b x coefficient
+     * @param c x^0 coefficient
+     * @return largest real root, or NaN if there is none
+     */
+    public static double largestRealRoot(double a, double b, double c){
+        //Degenerate linear equation
+        if(a==0){
+            return b==0 ? Double.NaN : -c/b;
+        }
+        
+        double disc = b*b-4*a*c;        
+        if(disc<0){
+            return Double.NaN;
+        }
+        //Repeated root, where q below would be 0
+        if(disc==0){
+            return -b/(2*a);
+        }
+        
+        double q = -0.5*(b+Math.copySign(Math.sqrt(disc), b));
+        return Math.max(q/a, c/q);
+    }
+    
+    /**
+     * Find all real roots of a quadratic equation ax^2+bx+c=0, as 
+     * quadraticRealRoots, writing them into part of a longer array
+     * @param a x^2 coefficient
+     * @param b x coefficient
+     * @param c x^0 coefficient
+     * @param roots array with room for 2 roots from offset on
+     * @param offset index to write the first root at
+     * @return number of real roots found, 0, 1 or 2
+     */
+    public static int quadraticRealRoots(double a, double b, double c, double roots[], int offset){
+        //Degenerate linear equation
+        if(a==0){
+            if(b==0){
+                return 0;
+            }
+            roots[offset] = -c/b;
+            return 1;
+        }
+        
+        double disc = b*b-4*a*c;        
+        if(disc<0){
+            return 0;
+        }
+        //Repeated root, where q below would be 0
+        if(disc==0){
+            roots[offset] = -b/(2*a);
+            return 1;
+        }
+        
+        double q = -0.5*(b+Math.copySign(Math.sqrt(disc), b));
+        double r_0 = q/a;
+        double r_1 = c/q;
+        roots[offset] = Math.min(r_0, r_1);
+        roots[offset+1] = Math.max(r_0, r_1);
+        return 2;
+    }
+    
     /**
      * Given two moving circles which are overlapping, identify how long ago
      * they first intersected. Positive radii assumes that one ball doesn't lie
@@ -50,33 +129,141 @@ public class Formulae {
      * @return time first intersection occurred (positive)
      */
     public static double whenCirclesIntersected(Vector loc_1, Vector loc_2, Vector vel_1, Vector vel_2, double r1, double r2){
-        
-        Vector xdiff = loc_1.sub(loc_2);
-        Vector vdiff = vel_1.sub(vel_2);
-
-        double a = vdiff.dot(vdiff);
-        double b = -2*xdiff.dot(vdiff);
-        double c = xdiff.dot(xdiff)-Math.pow(r1+r2, 2);
+        double t_correc = whenCirclesIntersected(loc_1.get(0)-loc_2.get(0), loc_1.get(1)-loc_2.get(1),
+                vel_1.get(0)-vel_2.get(0), vel_1.get(1)-vel_2.get(1), r1, r2);
+        if(Double.isNaN(t_correc)){
+            throw new IllegalStateException("No valid intersection time");
+        }
+        return t_correc;
+    }
+    
+    /**
+     * Vec2 form of whenCirclesIntersected
+     * @param loc_1 centrepoint of circle 1
+     * @param loc_2 centrepoint of circle 2
+     * @param vel_1 velocity of circle 1
+     * @param vel_2 velocity of circle 2
+     * @param r1 radius of circle 1
+     * @param r2 radius of circle 2
+     * @return time first intersection occurred (positive), or NaN if there
+     * is none
+     */
+    public static double whenCirclesIntersected(Vec2 loc_1, Vec2 loc_2, Vec2 vel_1, Vec2 vel_2, double r1, double r2){
+        return whenCirclesIntersected(loc_1.x-loc_2.x, loc_1.y-loc_2.y, vel_1.x-vel_2.x, vel_1.y-vel_2.y, r1, r2);
+    }
+    
+    /**
+     * Primitive form of whenCirclesIntersected for 2d circles, given the 
+     * relative position and velocity of circle 1 with respect to circle 2. 
+     * Rather than throwing, returns NaN when the circles never touched in 
+     * the past (no real root, or no non-negative root), so it is cheap to 
+     * call on grazing contacts
+     * @param dx x separation, loc_1-loc_2
+     * @param dy y separation, loc_1-loc_2
+     * @param dvx x relative velocity, vel_1-vel_2
+     * @param dvy y relative velocity, vel_1-vel_2
+     * @param r1 radius of circle 1
+     * @param r2 radius of circle 2
+     * @return time first intersection occurred (positive), or NaN if there
+     * is none
+     */
+    public static double whenCirclesIntersected(double dx, double dy, double dvx, double dvy, double r1, double r2){
 
-        ArrayList<Double> t_roots = Formulae.quadraticRealRoots(a, b, c);
-        double t_correc = 0;
-        if(t_roots.size()==1){
-            t_correc = t_roots.get(0);
+        double a = dvx*dvx+dvy*dvy;
+        double b = -2*(dx*dvx+dy*dvy);
+        double c = dx*dx+dy*dy-(r1+r2)*(r1+r2);
+        
+        //No relative motion, so no well defined time
+        if(a==0){
+            return Double.NaN;
+        }
+        
+        double disc = b*b-4*a*c;        
+        if(disc<0){
+            return Double.NaN;
+        }
+        
+        double t_correc;
+        //Repeated root, where q below would be 0
+        if(disc==0){
+            t_correc = -b/(2*a);
         }
         else{
-            if(t_roots.get(0)>0 && t_roots.get(1)>0){
-                t_correc = Math.min(t_roots.get(0), t_roots.get(1));
+            double q = -0.5*(b+Math.copySign(Math.sqrt(disc), b));
+            double t_0 = q/a;
+            double t_1 = c/q;
+            if(t_0>0 && t_1>0){
+                t_correc = Math.min(t_0, t_1);
             }
             else{
-                t_correc = Math.max(t_roots.get(0), t_roots.get(1));
+                t_correc = Math.max(t_0, t_1);
             }
         }
-        if(t_correc<0){
-            throw new IllegalStateException("Correction time calculated as negative");
-        }
 
-        return t_correc;
+        return t_correc<0 ? Double.NaN : t_correc;
                     
     }
     
+    /**
+     * Given two moving 2d circles which are not overlapping, identify how long
+     * until they first touch, using the same relative coordinates as 
+     * whenCirclesIntersected. The smaller root is taken in the form 
+     * c/(-b'+sqrt(disc')) to avoid cancellation for nearly touching circles
+     * @param dx x separation, loc_1-loc_2
+     * @param dy y separation, loc_1-loc_2
+     * @param dvx x relative velocity, vel_1-vel_2
+     * @param dvy y relative velocity, vel_1-vel_2
+     * @param r1 radius of circle 1
+     * @param r2 radius of circle 2
+     * @return time until the circles touch, 0 if they are already overlapping
+     * and approaching, or Double.POSITIVE_INFINITY if they never touch
+     */
+    public static double whenCirclesWillIntersect(double dx, double dy, double dvx, double dvy, double r1, double r2){
+        
+        double dvdr = dx*dvx+dy*dvy;
+        //Moving apart
+        if(dvdr>=0){
+            return Double.POSITIVE_INFINITY;
+        }
+        
+        double dvdv = dvx*dvx+dvy*dvy;
+        double c = dx*dx+dy*dy-(r1+r2)*(r1+r2);
+        if(c<=0){
+            return 0;
+        }
+        
+        double disc = dvdr*dvdr-dvdv*c;
+        if(disc<0){
+            return Double.POSITIVE_INFINITY;
+        }
+        
+        return c/(-dvdr+Math.sqrt(disc));
+    }
+    
+    /**
+     * Test the root finders, at unit scale and scaled down by 1000, which
+     * should give the same roots and times up to the scaling
+     * @param args 
+     */
+    public static void main(String args[]){
+        double roots[] = new double[2];
+        
+        for(double scale: new double[]{1, 1e-3}){
+            System.out.println("Scale "+scale);
+            
+            //Roots +-scale
+            int n = quadraticRealRoots(1, 0, -scale*scale, roots);
+            System.out.println(n+" roots "+roots[0]+" "+roots[1]);
+            n = quadraticRealRoots(1/(scale*scale), 0, -1, roots);
+            System.out.println(n+" roots "+roots[0]+" "+roots[1]);
+            System.out.println(largestRealRoot(1, -3*scale, 2*scale*scale));
+            
+            //Balls of radius scale overlapping by 0.1*scale, closing at 
+            //speed scale, touched 0.1 ago
+            System.out.println(whenCirclesIntersected(1.9*scale, 0, -scale, 0, scale, scale));
+            //The same balls 0.1*scale apart, which touch in 0.1
+            System.out.println(whenCirclesWillIntersect(2.1*scale, 0, -scale, 0, scale, scale));
+        }
+    }
+    
 }
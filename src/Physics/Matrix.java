@@ -7,11 +7,16 @@ import java.util.Random;
 /**
  * Class mimmicing a Matrix for doing physics and maths calculations
  * 
+ * Entries are stored in a single contiguous array in row-major order, so 
+ * element i,j lives at vals[i*ncols+j]. The in-place methods (addInPlace, 
+ * addScaledInPlace, scaleInPlace etc.) update this Matrix without allocating 
+ * and should be preferred in loops.
+ * 
  * @author cjcode975
  */
 public class Matrix {
     
-    private final double vals[][];
+    private final double vals[];
     private final int nrows, ncols;
     
     /**
@@ -23,7 +28,7 @@ public class Matrix {
         nrows = N_Rows;
         ncols = N_Cols;
         
-        vals = new double[nrows][ncols];
+        vals = new double[nrows*ncols];
     }
     
     /**
@@ -36,10 +41,8 @@ public class Matrix {
         nrows = N_Rows;
         ncols = N_Cols;
         
-        vals = new double[nrows][ncols];
-        for(double[] row:vals){
-            Arrays.fill(row, val);
-        }
+        vals = new double[nrows*ncols];
+        Arrays.fill(vals, val);
     }
     
     /**
@@ -52,11 +55,9 @@ public class Matrix {
         nrows = N_Rows;
         ncols = N_Cols;
         
-        vals = new double[nrows][ncols];
-        for(int i=0; i<nrows; i++){
-            for(int j=0; j<ncols; j++){
-                vals[i][j] = min + (max-min)*rand.nextDouble();
-            }
+        vals = new double[nrows*ncols];
+        for(int k=0; k<vals.length; k++){
+            vals[k] = min + (max-min)*rand.nextDouble();
         }
     }
     
@@ -65,9 +66,28 @@ public class Matrix {
      * @param input_vals 2d array of entries
      */
     public Matrix(double input_vals[][]){
-        vals = copy2DArray(input_vals);
-        nrows = vals.length;
-        ncols = vals[0].length;
+        nrows = input_vals.length;
+        ncols = input_vals[0].length;
+        vals = new double[nrows*ncols];
+        for(int i=0; i<nrows; i++){
+            System.arraycopy(input_vals[i], 0, vals, i*ncols, ncols);
+        }
+    }
+    
+    /**
+     * Create a Matrix from a flat array of entries in row-major order. The 
+     * array is copied
+     * @param N_Rows number of rows
+     * @param N_Cols number of columns
+     * @param input_vals entries, element i,j at input_vals[i*N_Cols+j]
+     */
+    public Matrix(int N_Rows, int N_Cols, double input_vals[]){
+        if(input_vals.length!=N_Rows*N_Cols){
+            throw new IllegalArgumentException("Number of entries does not match the Matrix dimensions: "+input_vals.length+" vs ("+N_Rows+","+N_Cols+")");
+        }
+        nrows = N_Rows;
+        ncols = N_Cols;
+        vals = input_vals.clone();
     }
     
     /**
@@ -76,7 +96,7 @@ public class Matrix {
      */
     @Override
     public Matrix clone(){
-        return new Matrix(vals);
+        return new Matrix(nrows, ncols, vals);
     }
     
     /**
@@ -85,7 +105,17 @@ public class Matrix {
      */
     @Override
     public String toString(){
-        return Arrays.deepToString(vals);
+        StringBuilder sb = new StringBuilder("[");
+        for(int i=0; i<nrows; i++){
+            if(i>0){ sb.append(", "); }
+            sb.append('[');
+            for(int j=0; j<ncols; j++){
+                if(j>0){ sb.append(", "); }
+                sb.append(vals[i*ncols+j]);
+            }
+            sb.append(']');
+        }
+        return sb.append(']').toString();
     }
     
     /**
@@ -143,7 +173,27 @@ public class Matrix {
      * @return element at i,j
      */
     public double get(int i, int j){
-        return vals[i][j];
+        return vals[i*ncols+j];
+    }
+    
+    /**
+     * Get direct access to the backing array of the Matrix, in row-major 
+     * order. Row i occupies the entries [rowOffset(i), rowOffset(i)+nCols()), 
+     * and column j is the entries rowOffset(0)+j with stride nCols(). Writes 
+     * to the array change the Matrix
+     * @return backing array
+     */
+    public double[] getData(){
+        return vals;
+    }
+    
+    /**
+     * Get the position in the backing array of the start of row i
+     * @param i row position
+     * @return index of element i,0 in getData()
+     */
+    public int rowOffset(int i){
+        return i*ncols;
     }
     
     /**
@@ -152,7 +202,21 @@ public class Matrix {
      * @return row as a Vector
      */
     public Vector row(int i){
-        return new Vector(vals[i]);
+        return rowInto(i, new Vector(ncols));
+    }
+    
+    /**
+     * Copy the ith row of the Matrix into an existing Vector
+     * @param i row to be copied
+     * @param output Vector of dimension nCols() to write to
+     * @return output
+     */
+    public Vector rowInto(int i, Vector output){
+        int offset = i*ncols;
+        for(int j=0; j<ncols; j++){
+            output.set(j, vals[offset+j]);
+        }
+        return output;
     }
     
     /**
@@ -161,11 +225,20 @@ public class Matrix {
      * @return column as Vector
      */
     public Vector column(int j){
-        double output[] = new double[nrows];
+        return columnInto(j, new Vector(nrows));
+    }
+    
+    /**
+     * Copy the jth column of the Matrix into an existing Vector
+     * @param j column to be copied
+     * @param output Vector of dimension nRows() to write to
+     * @return output
+     */
+    public Vector columnInto(int j, Vector output){
         for(int i=0; i<nrows; i++){
-            output[i] = vals[i][j];
+            output.set(i, vals[i*ncols+j]);
         }
-        return new Vector(output);
+        return output;
     }
     
     /**
@@ -175,7 +248,7 @@ public class Matrix {
      * @param new_val value to change to
      */
     public void set(int i, int j, double new_val){
-        vals[i][j] = new_val;
+        vals[i*ncols+j] = new_val;
     }
     
     /**
@@ -184,11 +257,21 @@ public class Matrix {
      * @param new_vals values to replace old row
      */
     public void setRow(int i, Vector new_vals){
+        int offset = i*ncols;
         for(int j=0; j<ncols; j++){
-            vals[i][j] = new_vals.get(j);
+            vals[offset+j] = new_vals.get(j);
         }
     }
     
+    /**
+     * Set the values in the ith row to new values from an array
+     * @param i row position
+     * @param new_vals values to replace old row, of length nCols()
+     */
+    public void setRow(int i, double new_vals[]){
+        System.arraycopy(new_vals, 0, vals, i*ncols, ncols);
+    }
+    
     /**
      * Set the values in the jth column to new values
      * @param j column position
@@ -196,7 +279,7 @@ public class Matrix {
      */
     public void setCol(int j, Vector new_vals){
         for(int i=0; i<nrows; i++){
-            vals[i][j] = new_vals.get(i);
+            vals[i*ncols+j] = new_vals.get(i);
         }
     }
     
@@ -211,13 +294,7 @@ public class Matrix {
             throw new IllegalArgumentException("Matrix dimensions do not match: " + this.dimString() + " vs " + additive.dimString());
         }
         
-        double output[][] = new double[nrows][ncols];
-        for(int i=0; i<nrows; i++){
-            for(int j=0; j<ncols; j++){
-                output[i][j] = vals[i][j] + additive.get(i,j);
-            }
-        }        
-        return new Matrix(output);
+        return clone().addInPlace(additive);
     }
     
     /**
@@ -231,13 +308,7 @@ public class Matrix {
             throw new IllegalArgumentException("Matrix dimensions do not match: " + this.dimString() + " vs " + subtractive.dimString());
         }
         
-        double output[][] = new double[nrows][ncols];
-        for(int i=0; i<nrows; i++){
-            for(int j=0; j<ncols; j++){
-                output[i][j] = vals[i][j] - subtractive.get(i,j);
-            }
-        }        
-        return new Matrix(output);
+        return clone().subInPlace(subtractive);
     }
     
     /**
@@ -246,14 +317,58 @@ public class Matrix {
      * @return multiplier*this
      */
     public Matrix scale(double multiplier){
-        double output[][] = new double[nrows][ncols];
-        for(int i=0; i<nrows; i++){
-            for(int j=0; j<ncols; j++){
-                output[i][j] = vals[i][j] * multiplier;
-            }
+        return clone().scaleInPlace(multiplier);
+    }
+    
+    /**
+     * Add another Matrix to this one in place, this += additive
+     * @param additive Matrix to be added
+     * @return this
+     */
+    public Matrix addInPlace(Matrix additive){
+        return addScaledInPlace(additive, 1);
+    }
+    
+    /**
+     * Subtract another Matrix from this one in place, this -= subtractive
+     * @param subtractive Matrix to be subtracted
+     * @return this
+     */
+    public Matrix subInPlace(Matrix subtractive){
+        return addScaledInPlace(subtractive, -1);
+    }
+    
+    /**
+     * Add a multiple of another Matrix to this one in place, 
+     * this += multiplier*additive, without creating any intermediate Matrix. 
+     * E.g. a position update is loc.addScaledInPlace(vel, dt)
+     * @param additive Matrix to be added
+     * @param multiplier scalar multiplier of additive
+     * @return this
+     */
+    public Matrix addScaledInPlace(Matrix additive, double multiplier){
+        
+        if(nrows!=additive.nRows() || ncols!=additive.nCols()){
+            throw new IllegalArgumentException("Matrix dimensions do not match: " + this.dimString() + " vs " + additive.dimString());
         }
         
-        return new Matrix(output);
+        double add_vals[] = additive.vals;
+        for(int k=0; k<vals.length; k++){
+            vals[k] += multiplier*add_vals[k];
+        }
+        return this;
+    }
+    
+    /**
+     * Multiply the Matrix by a scalar in place, this *= multiplier
+     * @param multiplier scalar multiplier
+     * @return this
+     */
+    public Matrix scaleInPlace(double multiplier){
+        for(int k=0; k<vals.length; k++){
+            vals[k] *= multiplier;
+        }
+        return this;
     }
     
     /**
@@ -268,16 +383,20 @@ public class Matrix {
             throw new IllegalArgumentException("Matrix inner dimensions do not match: " + this.dimString() + " vs " + multiplier.dimString());
         }
         
-        double output[][] = new double[nrows][multiplier.nCols()];
+        int out_cols = multiplier.nCols();
+        double mult_vals[] = multiplier.vals;
+        double output[] = new double[nrows*out_cols];
+        //i-k-j loop order so the inner loop runs along contiguous rows
         for(int i=0; i<nrows; i++){
-            for(int j=0; j<multiplier.nCols(); j++){
-                for(int k=0; k<ncols; k++){
-                    output[i][j] += vals[i][k]*multiplier.get(k, j);
+            for(int k=0; k<ncols; k++){
+                double a_ik = vals[i*ncols+k];
+                for(int j=0; j<out_cols; j++){
+                    output[i*out_cols+j] += a_ik*mult_vals[k*out_cols+j];
                 }
             }
         }
         
-        return new Matrix(output);
+        return new Matrix(nrows, out_cols, output);
     }
     
     /**
@@ -293,8 +412,9 @@ public class Matrix {
         
         double output[] = new double[nrows];
         for(int i=0; i<nrows; i++){
+            int offset = i*ncols;
             for(int j=0; j<ncols; j++){
-                output[i] += vals[i][j]*multiplier.get(j);
+                output[i] += vals[offset+j]*multiplier.get(j);
             }
         }
         
@@ -324,6 +444,9 @@ public class Matrix {
         b.setCol(1, a.row(0));
         System.out.println(b);
         
+        System.out.println(a.clone().addScaledInPlace(b, 2).toString()+a.add(b.scale(2)).toString());
+        System.out.println(parseMatrix(c.toString()).toString());
+        
         //Expect to throw errors
         System.out.println(a.add(c).toString());
         System.out.println(a.sub(c).toString());
@@ -0,0 +1,155 @@
+package Physics;
+
+/**
+ * Mutable 2d vector for use in the inner loops of the simulation. Unlike
+ * Vector, all operations update this Vec2 in place and return it, so a single
+ * scratch Vec2 can be reused for every ball without allocating. Static
+ * kernels operating on scalar pairs are also provided for code working
+ * directly on primitive arrays.
+ *
+ * @author cjcode975
+ */
+public final class Vec2 {
+
+    public double x, y;
+
+    /**
+     * Create a new zero Vec2
+     */
+    public Vec2(){
+    }
+
+    /**
+     * Create a new Vec2 with the given components
+     * @param x_val x component
+     * @param y_val y component
+     */
+    public Vec2(double x_val, double y_val){
+        x = x_val;
+        y = y_val;
+    }
+
+    /**
+     * Set both components
+     * @param x_val new x component
+     * @param y_val new y component
+     * @return this
+     */
+    public Vec2 set(double x_val, double y_val){
+        x = x_val;
+        y = y_val;
+        return this;
+    }
+
+    /**
+     * Copy the components of another Vec2
+     * @param other Vec2 to copy
+     * @return this
+     */
+    public Vec2 set(Vec2 other){
+        x = other.x;
+        y = other.y;
+        return this;
+    }
+
+    /**
+     * Add a multiple of another Vec2 in place, this += multiplier*additive
+     * @param additive Vec2 to be added
+     * @param multiplier scalar multiplier of additive
+     * @return this
+     */
+    public Vec2 addScaled(Vec2 additive, double multiplier){
+        x += multiplier*additive.x;
+        y += multiplier*additive.y;
+        return this;
+    }
+
+    /**
+     * Multiply by a scalar in place
+     * @param multiplier amount to scale by
+     * @return this
+     */
+    public Vec2 scale(double multiplier){
+        x *= multiplier;
+        y *= multiplier;
+        return this;
+    }
+
+    /**
+     * Calculate the dot product this.multiplier
+     * @param multiplier multiplying Vec2
+     * @return dot product
+     */
+    public double dot(Vec2 multiplier){
+        return x*multiplier.x+y*multiplier.y;
+    }
+
+    /**
+     * Calculate the magnitude of the Vec2
+     * @return magnitude
+     */
+    public double magnitude(){
+        return magnitude(x, y);
+    }
+
+    /**
+     * Scale to unit length in place
+     * @return this
+     */
+    public Vec2 unit(){
+        return scale(1/magnitude());
+    }
+
+    /**
+     * Reflect in place in the line with the given unit normal,
+     * this -= 2*(this.normal)*normal
+     * @param normal unit normal of the reflecting surface
+     * @return this
+     */
+    public Vec2 reflect(Vec2 normal){
+        return addScaled(normal, -2*dot(normal));
+    }
+
+    /**
+     * Copy into a new Vector
+     * @return Vector with the same components
+     */
+    public Vector toVector(){
+        Vector output = new Vector(2);
+        output.set(0, x);
+        output.set(1, y);
+        return output;
+    }
+
+    /**
+     * Vec2 displays as a list of its elements, matching Vector
+     * @return String of list of elements
+     */
+    @Override
+    public String toString(){
+        return "["+x+", "+y+"]";
+    }
+
+    /**
+     * Dot product of two vectors given as scalar pairs
+     * @param ax x component of first vector
+     * @param ay y component of first vector
+     * @param bx x component of second vector
+     * @param by y component of second vector
+     * @return dot product
+     */
+    public static double dot(double ax, double ay, double bx, double by){
+        return ax*bx+ay*by;
+    }
+
+    /**
+     * Magnitude of a vector given as a scalar pair
+     * @param x_val x component
+     * @param y_val y component
+     * @return magnitude
+     */
+    public static double magnitude(double x_val, double y_val){
+        return Math.sqrt(x_val*x_val+y_val*y_val);
+    }
+
+}
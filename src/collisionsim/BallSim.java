@@ -2,20 +2,22 @@
 package collisionsim;
 
 import Boundaries.Boundary;
+import Boundaries.Contact;
 import Physics.Formulae;
 import std.StdDraw;
 import Physics.Matrix;
-import Physics.Vector;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * Simulate balls in a box experiencing elastic collisions
@@ -31,22 +33,83 @@ public class BallSim {
     //Primary simulation variables
     private final int n_balls;
     
-    private Matrix loc, vel;
+    //Ball state stored as flat primitive arrays, one entry per ball, so the
+    //hot loops never allocate
+    private double[] x, y, vx, vy;
     
     private double[] radius, mass;
     private double max_radius;   
     
+    //Where positions and velocities are held between steps, and the state 
+    //held there, or null while the double arrays above hold the state. Any
+    //Storage but HEAP only keeps the state in the arrays while it is being
+    //set or read. Off heap state can be mapped from a file
+    private final Storage storage;
+    private StateStore store;
+    private String stateFile;
+    
+    //Original number of the ball stored at each index. Balls are reordered
+    //in memory to keep those close in space close in the arrays, but are
+    //always read and written in their original order by the public methods
+    private final int ids[];
+    //Number of steps between reorderings, 0 for never
+    private int reorderInterval = 0, stepsSinceReorder = 0;
+    private double permScratch[];
+    
     private double dt;
     
     //Description of the boundary of billiard    
     private Boundary bounds;
     private double bounding_box[];
     
-    //Variables used to describe the partition of the billiard into subspaces to
-    //speed up collision detection
-    private ArrayList<Integer>[][] partitionBoxes;
-    private int nbox_x, nbox_y;
-    private Vector partitionCorner = new Vector(2);    
+    //Partition of the billiard into subspaces to speed up collision detection
+    private CellList partition;
+    //Whether the partition is updated incrementally rather than rebuilt each step
+    private boolean incrementalPartition = false;
+    
+    //How candidate colliding pairs are found
+    private Broadphase broadphase = Broadphase.GRID;
+    private NeighbourList neighbours;
+    private SweepAndPrune sweep;
+    private HierarchicalGrid levels;
+    private HashedGrid hashed;
+    private double neighbourSkin = 0;
+    
+    //Threads used for the GRID broadphase, or null to run on the calling 
+    //thread, and the width in cells of the tiles handed to each thread
+    private ForkJoinPool pool;
+    private static final int TILE = 4;
+    
+    //Whether the threads each own a strip of the billiard, and the strips
+    private boolean decompose = false;
+    private Domains domains;
+    
+    //Whether ball-ball contacts are all found before any are resolved, and
+    //the contacts found in each row of cells and in total
+    private boolean twoPhase = false;
+    private ContactBuffer rowContacts[];
+    private final ContactBuffer contacts = new ContactBuffer();
+    
+    //Number of balls handed to each thread when bouncing off the walls, and
+    //each thread's scratch space for wall queries
+    private static final int WALL_BLOCK = 1024;
+    private final ThreadLocal<Contact> wallContact = ThreadLocal.withInitial(Contact::new);
+    
+    //Whether time stepping and the full wall pass use the Java Vector API,
+    //which is only possible when the kernels in src-jdk21 can be loaded
+    private boolean simd = false;
+    
+    //Simulated time since the start, advanced by Step_Time
+    private double clock = 0;
+    //Whether walls are only checked for balls which could have reached 
+    //them, and the earliest time each ball can next hit a wall, or null when
+    //not known for any ball
+    private boolean wallPrediction = false;
+    private double nextWall[];
+    
+    //Event driven integrator, kept between calls to Simulate_Events while the
+    //state is only changed by it
+    private EventEngine events;
     
     //Information needed for saving data
     private String baseFileName;
@@ -67,8 +130,32 @@ public class BallSim {
      * @param Max_Y height of box
      */
     public BallSim(int N_Balls, Boundary boundary){
+        this(N_Balls, boundary, Storage.HEAP);
+    }
+    
+    /**
+     * Create new simulation of balls bouncing in a box, holding the 
+     * positions and velocities in the chosen storage.
+     * 
+     * Any storage but HEAP always uses the GRID broadphase, without wall 
+     * prediction, the Vector API or reordering, and without incremental
+     * partition updates. Calling any other method that changes the state 
+     * moves it back into double arrays on the heap until the next step.
+     * Reading the state, with getLoc, getVel or the distributions, leaves 
+     * it in its storage
+     * @param N_Balls number of balls
+     * @param boundary boundary of the billiard
+     * @param state_storage where to hold the positions and velocities
+     */
+    public BallSim(int N_Balls, Boundary boundary, Storage state_storage){
         n_balls = N_Balls;
         bounds = boundary;
+        storage = state_storage;
+        
+        ids = new int[n_balls];
+        for(int i=0; i<n_balls; i++){
+            ids[i] = i;
+        }
         
         bounding_box = bounds.getBounds();
         
@@ -83,7 +170,8 @@ public class BallSim {
      * @param vals list of the radius of each ball
      */
     public void Set_Radii(double vals[]){
-        radius = vals.clone();
+        Unpack();
+        radius = Internal(vals);
         
         max_radius = radius[0];
         
@@ -99,6 +187,7 @@ public class BallSim {
      * @param radius_val constant radius
      */
     public void Set_Radii(double radius_val){
+        Unpack();
         radius = new double[n_balls];
         Arrays.fill(radius, radius_val);
         
@@ -113,6 +202,7 @@ public class BallSim {
      * @param max maximum possible radii
      */
     public void Set_Radii(double min, double max){
+        Unpack();
         radius = new double[n_balls];
         max_radius = 0;
         for(int i=0; i<n_balls; i++){
@@ -126,28 +216,366 @@ public class BallSim {
     }
     
     /**
-     * Setup the binary space partition used to detect ball-to-ball collisions
+     * Setup the binary space partition used to detect ball-to-ball 
+     * collisions. The partitions are created when first used, so only the 
+     * one for the chosen broadphase takes up memory
      */
     private void CollisionBoxes(){
+        partition = null;
+        domains = null;
+        neighbours = null;
+        sweep = null;
+        levels = null;
+        hashed = null;
+        nextWall = null;
+    }
+    
+    /**
+     * Choose the method used to find pairs of balls which might be colliding
+     * @param method broadphase method
+     */
+    public void Set_Broadphase(Broadphase method){
+        broadphase = method;
+    }
+    
+    /**
+     * Set the number of threads used to check for collisions with the walls,
+     * and between balls with the GRID broadphase. More than one thread gives 
+     * ball-ball results which depend on the order cells are processed in, 
+     * so differ slightly from a single thread, but are the same for any 
+     * number of threads above one
+     * @param threads number of threads, 1 to run on the calling thread
+     */
+    public void Set_Threads(int threads){
+        if(pool!=null){
+            pool.shutdown();
+        }
+        pool = threads>1 ? new ForkJoinPool(threads) : null;
+        if(domains!=null){
+            CollisionBoxes();
+        }
+    }
+    
+    /**
+     * Choose whether the GRID broadphase splits the billiard into strips, 
+     * one for each thread set by Set_Threads. Each thread then moves, bins 
+     * and collides only the balls in its own strip, and balls are handed 
+     * between strips as they cross. The strip edges move as the balls do, 
+     * so each thread has about the same work even when the balls are 
+     * crowded into part of the billiard, as in the cap of a Mushroom. 
+     * Results differ slightly from other ways of running, and depend on the
+     * number of threads, but not on timing. Only used with HEAP storage, 
+     * without two-phase detection or wall prediction
+     * @param decomposition true to split the billiard into strips
+     */
+    public void Set_Domain_Decomposition(boolean decomposition){
+        decompose = decomposition;
+        if(domains!=null){
+            CollisionBoxes();
+        }
+    }
+    
+    /**
+     * Choose whether the GRID broadphase finds all contacts between balls
+     * before resolving any of them. Detection then only reads the state, so
+     * runs on all threads set by Set_Threads, and the contacts are resolved 
+     * earliest first. The results are the same for any number of threads
+     * @param two_phase true to detect then resolve, false to resolve each 
+     * contact as soon as it is found
+     */
+    public void Set_Two_Phase(boolean two_phase){
+        twoPhase = two_phase;
+    }
+    
+    /**
+     * Choose whether each ball remembers when it will next hit the wall, 
+     * found exactly from the boundary, and is skipped by the wall checks 
+     * until then. A ball's time is worked out again whenever it bounces off
+     * a ball or the wall. Worthwhile when balls cross the billiard in many
+     * steps and rarely meet, or the wall test is expensive. The wall checks
+     * then run on the calling thread
+     * @param predict true to skip balls which can't have reached the wall
+     */
+    public void Set_Wall_Prediction(boolean predict){
+        wallPrediction = predict;
+        nextWall = null;
+    }
+    
+    /**
+     * Choose whether to move the balls, and test them against the walls of
+     * a Rectangle or Circle, several at a time with the Java Vector API. 
+     * The results are identical either way. Needs the src-jdk21 source 
+     * root to be built and the JVM to be started with --add-modules 
+     * jdk.incubator.vector; without them the plain loops are kept
+     * @param use true to use the Vector API when it is available
+     * @return if the Vector API will be used
+     */
+    public boolean Set_Simd(boolean use){
+        simd = use && StepKernels.SIMD!=null;
+        return simd;
+    }
+    
+    /**
+     * Hold the OFF_HEAP state in memory mapped from a file, as the x 
+     * positions, y positions, x velocities then y velocities of all balls, 
+     * each as n_balls doubles in the native byte order and in the order the
+     * balls are stored, followed by the original index of each ball as 
+     * n_balls ints. Save_State writes the current state to the file
+     * @param fName file to map, created if it doesn't exist
+     * @param resume true to take the state from the file, as left by an 
+     * earlier Save_State with the same number of balls, false to write the 
+     * current state into it. The radii and masses must already be set
+     * @throws IOException if the file cannot be opened or mapped, or does 
+     * not hold a state for this number of balls
+     */
+    public void Set_State_File(String fName, boolean resume) throws IOException{
+        if(storage!=Storage.OFF_HEAP){
+            throw new IllegalStateException("State files need OFF_HEAP storage");
+        }
+        Unpack();
+        if(resume){
+            //The balls may have been stored in another order
+            CollisionBoxes();
+            events = null;
+        }
+        if(partition==null){
+            partition = New_Partition();
+        }
+        StateStore memory = StateStore.Off_Heap(partition, n_balls, fName, resume);
+        if(resume){
+            Adopt_Order(memory.Load_Ids(), fName);
+        }
+        else{
+            memory.Load(x, y, vx, vy);
+            memory.Save_Ids(ids);
+        }
+        stateFile = fName;
+        store = memory;
+        x = null;
+        y = null;
+        vx = null;
+        vy = null;
+        nextWall = null;
+        setMomDistMax();
+    }
+    
+    /**
+     * Store the balls in the order they were saved in, as given by their 
+     * original indices, moving the radii and masses to match
+     * @param saved original index of the ball at each place
+     * @param fName file the order was read from
+     * @throws IOException if the order is not a permutation of the balls
+     */
+    private void Adopt_Order(int saved[], String fName) throws IOException{
+        //Current place of each ball
+        int place[] = new int[n_balls];
+        for(int i=0; i<n_balls; i++){
+            place[ids[i]] = i;
+        }
+        int from[] = new int[n_balls];
+        boolean seen[] = new boolean[n_balls];
+        for(int k=0; k<n_balls; k++){
+            int id = saved[k];
+            if(id<0 || id>=n_balls || seen[id]){
+                throw new IOException("State file "+fName+" does not hold a valid order of the balls");
+            }
+            seen[id] = true;
+            from[k] = place[id];
+        }
         
-        max_radius = 2.25*max_radius;
-        
-        int zero_box_x = (int)(Math.ceil(-1*(bounding_box[0]-1)/max_radius));
-        int zero_box_y = (int)(Math.ceil(-1*(bounding_box[2]-1)/max_radius));
-        
-        nbox_x = (int)(Math.ceil((bounding_box[1]+1)/max_radius))+zero_box_x;
-        nbox_y = (int)(Math.ceil((bounding_box[3]+1)/max_radius))+zero_box_y;
+        for(double vals[]: new double[][]{radius, mass}){
+            if(vals==null){
+                continue;
+            }
+            double copy[] = vals.clone();
+            for(int k=0; k<n_balls; k++){
+                vals[k] = copy[from[k]];
+            }
+        }
+        System.arraycopy(saved, 0, ids, 0, n_balls);
+    }
+    
+    /**
+     * Write the current state to the file set by Set_State_File, by 
+     * flushing the memory mapped from it
+     */
+    public void Save_State(){
+        if(stateFile==null){
+            throw new IllegalStateException("No state file set");
+        }
+        Pack();
+        store.Force();
+    }
+    
+    /**
+     * Set the skin distance used by the NEIGHBOUR_LIST broadphase. Balls are
+     * listed as neighbours if their edges are closer than the skin, and the 
+     * lists are rebuilt once any ball has moved half the skin. Defaults to 
+     * half the largest radius
+     * @param skin skin distance
+     */
+    public void Set_Neighbour_Skin(double skin){
+        neighbourSkin = skin;
+        neighbours = null;
+    }
+    
+    /**
+     * Choose how the partition is kept up to date between steps. When 
+     * incremental, each ball remembers its cell and only balls that have 
+     * crossed into a new cell are moved, which is much cheaper than a full
+     * rebuild when the timestep is small
+     * @param incremental true to update incrementally, false to rebuild 
+     * every step
+     */
+    public void Set_Incremental_Partition(boolean incremental){
+        incrementalPartition = incremental;
+    }
+    
+    /**
+     * Reorder the balls in memory every given number of steps of 
+     * CollisionsBSP, so that balls close together in the billiard are close
+     * together in memory. The first reordering is on the next step. Ball 
+     * numbering seen through the public methods is unaffected
+     * @param steps number of steps between reorderings, 0 to never reorder
+     */
+    public void Set_Reorder_Interval(int steps){
+        reorderInterval = steps;
+        stepsSinceReorder = steps;
+    }
+    
+    /**
+     * Reorder the state of all balls in memory by the Morton (Z-order) code 
+     * of the partition cell they are in, which keeps balls in nearby cells 
+     * mostly nearby in memory. Cell coordinates are clamped to 16 bits, so 
+     * past 65536 cells across, balls in the last columns or rows are only 
+     * ordered by their index
+     */
+    public void Reorder(){
+        Unpack();
+        stepsSinceReorder = 0;
+        double width = 2.25*max_radius;
         
-        partitionCorner.set(0, -1*max_radius*zero_box_x);
-        partitionCorner.set(1, -1*max_radius*zero_box_y);
+        //Sort by Morton code, with the current index in the low bits. The 
+        //code fills all 32 high bits, so flip the sign bit to make the 
+        //signed sort order the same as the unsigned order of the codes
+        long keys[] = new long[n_balls];
+        for(int i=0; i<n_balls; i++){
+            int ci = (int)Math.min(Math.max((x[i]-bounding_box[0]+1)/width, 0), 0xFFFF);
+            int cj = (int)Math.min(Math.max((y[i]-bounding_box[2]+1)/width, 0), 0xFFFF);
+            keys[i] = ((Morton(ci, cj)<<32)|i)^Long.MIN_VALUE;
+        }
+        Arrays.sort(keys);
         
-        partitionBoxes = new ArrayList[nbox_x][nbox_y];        
+        int perm[] = new int[n_balls];
+        for(int k=0; k<n_balls; k++){
+            perm[k] = (int)keys[k];
+        }
         
-        for(int i=0; i<nbox_x; i++){
-            for(int j=0; j<nbox_y; j++){
-                partitionBoxes[i][j] = new ArrayList<Integer>();
+        if(permScratch==null){
+            permScratch = new double[n_balls];
+        }
+        for(double vals[]: new double[][]{x, y, vx, vy, radius, mass}){
+            for(int k=0; k<n_balls; k++){
+                permScratch[k] = vals[perm[k]];
             }
-        }       
+            System.arraycopy(permScratch, 0, vals, 0, n_balls);
+        }
+        int new_ids[] = new int[n_balls];
+        for(int k=0; k<n_balls; k++){
+            new_ids[k] = ids[perm[k]];
+        }
+        System.arraycopy(new_ids, 0, ids, 0, n_balls);
+        
+        //Everything holding ball indices is out of date
+        CollisionBoxes();
+        events = null;
+    }
+    
+    /**
+     * Interleave the bits of two 16 bit cell coordinates
+     * @param i column of cell
+     * @param j row of cell
+     * @return Morton code of the cell
+     */
+    private static long Morton(int i, int j){
+        return Spread(i)|(Spread(j)<<1);
+    }
+    
+    /**
+     * Spread the bits of a 16 bit number out to every other bit
+     * @param v number to spread
+     * @return spread bits
+     */
+    private static long Spread(int v){
+        long b = v&0xFFFF;
+        b = (b|(b<<8))&0x00FF00FFL;
+        b = (b|(b<<4))&0x0F0F0F0FL;
+        b = (b|(b<<2))&0x33333333L;
+        b = (b|(b<<1))&0x55555555L;
+        return b;
+    }
+    
+    /**
+     * Force a full rebuild of the partition, e.g. to restore the spare room
+     * in each cell after many incremental updates
+     */
+    public void Rebuild_Partition(){
+        Unpack();
+        if(partition==null){
+            partition = New_Partition();
+        }
+        partition.Build(x, y, incrementalPartition ? CellList.SLACK : 0);
+    }
+    
+    /**
+     * Create an empty partition with cells sized for the largest ball, and 
+     * mark the cells by how close they are to the wall, at first for balls
+     * moving less than their radius in a step. Check_Reach marks them again
+     * if the balls move further
+     * @return new partition
+     */
+    private CellList New_Partition(){
+        CellList cells = new CellList(bounding_box, 2.25*max_radius, n_balls);
+        cells.Classify(bounds, 2*max_radius);
+        return cells;
+    }
+    
+    /**
+     * Bring the partition up to date with the current ball positions
+     */
+    private void SortPartition(){
+        if(store!=null){
+            store.Rebin();
+            Check_Reach();
+            return;
+        }
+        if(partition==null){
+            partition = New_Partition();
+        }
+        if(incrementalPartition){
+            partition.Update(x, y);
+        }
+        else{
+            partition.Build(x, y, 0);
+        }
+        Check_Reach();
+    }
+    
+    /**
+     * Mark the partition cells again by how close they are to the wall if 
+     * the fastest ball now moves further in a step than they were marked 
+     * for. Otherwise a ball could pass far enough through the wall in one 
+     * step to land in a cell marked as outside, where it would never be 
+     * bounced back
+     * @return whether the cells were marked again
+     */
+    private boolean Check_Reach(){
+        double max_v2 = 0;
+        for(int i=0; i<n_balls; i++){
+            double vel_x = store!=null ? store.VX(i) : vx[i], vel_y = store!=null ? store.VY(i) : vy[i];
+            max_v2 = Math.max(max_v2, vel_x*vel_x+vel_y*vel_y);
+        }
+        return partition.Cover_Step(bounds, max_radius, Math.sqrt(max_v2)*dt);
     }
     
     /**
@@ -155,7 +583,7 @@ public class BallSim {
      * @param vals list of value of the mass of each ball
      */
     public void Set_Mass(double vals[]){
-        mass = vals.clone();
+        mass = Internal(vals);
     }
     
     /**
@@ -181,7 +609,16 @@ public class BallSim {
      * @param vals list of ball positions
      */
     public void Set_Locations(Matrix vals){
-        loc = vals.clone();
+        Unpack();
+        neighbours = null;
+        sweep = null;
+        x = new double[n_balls];
+        y = new double[n_balls];
+        nextWall = null;
+        for(int i=0; i<n_balls; i++){
+            x[i] = vals.get(0, ids[i]);
+            y[i] = vals.get(1, ids[i]);
+        }
     }
     
     /**
@@ -189,13 +626,18 @@ public class BallSim {
      * don't overlap with each other or the walls
      */
     public void Set_Locations(){
-        loc = new Matrix(2,n_balls);
+        Unpack();
+        neighbours = null;
+        sweep = null;
+        nextWall = null;
+        x = new double[n_balls];
+        y = new double[n_balls];
         
         for(int i=0; i<n_balls; i++){            
             do{
-                loc.set(0, i, bounding_box[0]+(bounding_box[1]-bounding_box[0])*rand.nextDouble());
-                loc.set(1, i, bounding_box[2]+(bounding_box[3]-bounding_box[2])*rand.nextDouble());
-            }while(bounds.OutOfBounds(loc.column(i), radius[i]) || OverlapsPrevious(i));
+                x[i] = bounding_box[0]+(bounding_box[1]-bounding_box[0])*rand.nextDouble();
+                y[i] = bounding_box[2]+(bounding_box[3]-bounding_box[2])*rand.nextDouble();
+            }while(OutOfBounds(i) || OverlapsPrevious(i));
         }
     }
     
@@ -206,19 +648,36 @@ public class BallSim {
      */
     private boolean OverlapsPrevious(int i){
         for(int j=0; j<i; j++){
-            if(loc.column(j).sub(loc.column(i)).magnitude()<=radius[i]+radius[j]){
+            double dx = x[j]-x[i], dy = y[j]-y[i];
+            if(dx*dx+dy*dy<=(radius[i]+radius[j])*(radius[i]+radius[j])){
                 return true;
             }
         }
         return false;
     }
     
+    /**
+     * Check if ball i is outside bounds or in contact with the boundary wall
+     * @param i index of the ball
+     * @return if the boundary is breached
+     */
+    private boolean OutOfBounds(int i){
+        return bounds.OutOfBounds(x[i], y[i], radius[i]);
+    }
+    
     /**
      * Set the velocities of the balls according to a list of their values
      * @param vals list of the ball velocities
      */
     public void Set_Velocities(Matrix vals){
-        vel = vals.clone();
+        Unpack();
+        nextWall = null;
+        vx = new double[n_balls];
+        vy = new double[n_balls];
+        for(int i=0; i<n_balls; i++){
+            vx[i] = vals.get(0, ids[i]);
+            vy[i] = vals.get(1, ids[i]);
+        }
         setMomDistMax();     
     }
         
@@ -227,12 +686,15 @@ public class BallSim {
      * @param speed speed for all balls
      */
     public void Set_Speed(double speed){
-        vel = new Matrix(2,n_balls);
+        Unpack();
+        nextWall = null;
+        vx = new double[n_balls];
+        vy = new double[n_balls];
         
         for(int i=0; i<n_balls; i++){
             double angle = 2*Math.PI*rand.nextDouble();
-            vel.set(0,i, speed*Math.cos(angle));
-            vel.set(1,i,speed*Math.sin(angle));
+            vx[i] = speed*Math.cos(angle);
+            vy[i] = speed*Math.sin(angle);
         }
         
         setMomDistMax();
@@ -243,12 +705,15 @@ public class BallSim {
      * @param momentum 
      */
     public void Set_Momentum(double momentum){
-        vel = new Matrix(2,n_balls);
+        Unpack();
+        nextWall = null;
+        vx = new double[n_balls];
+        vy = new double[n_balls];
         
         for(int i=0; i<n_balls; i++){
             double angle = 2*Math.PI*rand.nextDouble();
-            vel.set(0,i, momentum*Math.cos(angle)/mass[i]);
-            vel.set(1,i,momentum*Math.sin(angle)/mass[i]);
+            vx[i] = momentum*Math.cos(angle)/mass[i];
+            vy[i] = momentum*Math.sin(angle)/mass[i];
         }
         
         setMomDistMax();
@@ -257,14 +722,19 @@ public class BallSim {
     private void setMomDistMax(){
         double totMom = 0;
         for(int i=0; i<n_balls; i++){
-            totMom += vel.column(i).magnitude()*mass[i];
+            double vel_x = store!=null ? store.VX(i) : vx[i], vel_y = store!=null ? store.VY(i) : vy[i];
+            totMom += Math.sqrt(vel_x*vel_x+vel_y*vel_y)*mass[i];
         }
         maxMomDist = 3*totMom/n_balls;
         momDistBoxWidth = maxMomDist/(double)nMomBoxes;
     }
     
     /**
-     * Set the timestep for the simulation
+     * Set the timestep for the simulation. Balls which move further than 
+     * their radius in a step can pass through thin walls, and through each
+     * other, without touching. The GRID broadphase keeps track of how far 
+     * the fastest ball moves, so it never loses balls which end a step past
+     * the wall, but it checks more cells near the wall the further they move
      * @param time_step 
      */
     public void Set_DT(double time_step){
@@ -275,7 +745,74 @@ public class BallSim {
      * Calculate the next stage of the simulation after a timestep
      */
     public void Step_Time(){
-        loc = loc.add(vel.scale(dt));
+        events = null;
+        if(storage!=Storage.HEAP){
+            Pack();
+            store.Advance(dt);
+        }
+        else if(domains!=null && pool!=null){
+            pool.submit(() -> IntStream.range(0, domains.n_domains).parallel().forEach(k -> 
+                domains.Advance(k, x, y, vx, vy, dt)
+            )).join();
+        }
+        else if(simd){
+            StepKernels.SIMD.Advance(x, y, vx, vy, dt, n_balls);
+        }
+        else{
+            for(int i=0; i<n_balls; i++){
+                x[i] += vx[i]*dt;
+                y[i] += vy[i]*dt;
+            }
+        }
+        clock += dt;
+    }
+    
+    /**
+     * Move the state into its storage, if it isn't there already, building 
+     * the partition it is sorted into
+     */
+    private void Pack(){
+        if(store!=null){
+            return;
+        }
+        if(partition==null){
+            partition = New_Partition();
+        }
+        if(storage==Storage.SINGLE_PRECISION){
+            store = new FloatState(partition, x, y, vx, vy);
+        }
+        else{
+            StateStore memory;
+            try{
+                memory = StateStore.Off_Heap(partition, n_balls, stateFile, false);
+            }
+            catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+            memory.Load(x, y, vx, vy);
+            memory.Save_Ids(ids);
+            store = memory;
+        }
+        x = null;
+        y = null;
+        vx = null;
+        vy = null;
+    }
+    
+    /**
+     * Move the state back into the double arrays, if it is held in its 
+     * storage
+     */
+    private void Unpack(){
+        if(store==null){
+            return;
+        }
+        x = new double[n_balls];
+        y = new double[n_balls];
+        vx = new double[n_balls];
+        vy = new double[n_balls];
+        store.Unpack(x, y, vx, vy);
+        store = null;
     }
     
     /**
@@ -285,30 +822,171 @@ public class BallSim {
      * @param j index of second ball
      */
     private void Collide(int i, int j){        
-        //Calculate when the balls actually collided
-        double tcorrec = 0;
-        try{
-            tcorrec = Formulae.whenCirclesIntersected(loc.column(i),loc.column(j),vel.column(i),vel.column(j),radius[i],radius[j]);
+        if(store!=null){
+            store.Collide(i, j, radius, mass);
+            return;
         }
-        catch(Exception e){
+        //Calculate when the balls actually collided
+        double tcorrec = Formulae.whenCirclesIntersected(x[i]-x[j], y[i]-y[j], vx[i]-vx[j], vy[i]-vy[j], radius[i], radius[j]);
+        if(Double.isNaN(tcorrec)){
             return;
         }
+        if(nextWall!=null){
+            nextWall[i] = Double.NEGATIVE_INFINITY;
+            nextWall[j] = Double.NEGATIVE_INFINITY;
+        }
         //Unwind time to the collision
-        loc.setCol(i, loc.column(i).sub(vel.column(i).scale(tcorrec)));
-        loc.setCol(j, loc.column(j).sub(vel.column(j).scale(tcorrec)));
+        x[i] -= vx[i]*tcorrec;
+        y[i] -= vy[i]*tcorrec;
+        x[j] -= vx[j]*tcorrec;
+        y[j] -= vy[j]*tcorrec;
 
         //Calculate the effect of the collision on the velocities
-        Vector xdiff = loc.column(i).sub(loc.column(j));
-        Vector vdiff = vel.column(i).sub(vel.column(j));
+        double xdiff_x = x[i]-x[j], xdiff_y = y[i]-y[j];
+        double vdiff_x = vx[i]-vx[j], vdiff_y = vy[i]-vy[j];
 
-        Vector inc = xdiff.scale(2*vdiff.dot(xdiff)/((mass[i]+mass[j])*xdiff.dot(xdiff)));
+        double inc = 2*(vdiff_x*xdiff_x+vdiff_y*xdiff_y)/((mass[i]+mass[j])*(xdiff_x*xdiff_x+xdiff_y*xdiff_y));
 
-        vel.setCol(i, vel.column(i).sub(inc.scale(mass[j])));
-        vel.setCol(j, vel.column(j).add(inc.scale(mass[i])));
+        vx[i] -= inc*mass[j]*xdiff_x;
+        vy[i] -= inc*mass[j]*xdiff_y;
+        vx[j] += inc*mass[i]*xdiff_x;
+        vy[j] += inc*mass[i]*xdiff_y;
 
         //Evolve back to the end of the timestep
-        loc.setCol(i, loc.column(i).add(vel.column(i).scale(tcorrec)));
-        loc.setCol(j, loc.column(j).add(vel.column(j).scale(tcorrec)));
+        x[i] += vx[i]*tcorrec;
+        y[i] += vy[i]*tcorrec;
+        x[j] += vx[j]*tcorrec;
+        y[j] += vy[j]*tcorrec;
+    }
+    
+    /**
+     * Check if two balls are overlapping
+     * @param i index of first ball
+     * @param j index of second ball
+     * @return if the balls overlap
+     */
+    private boolean Overlapping(int i, int j){
+        if(store!=null){
+            return store.Overlapping(i, j, radius);
+        }
+        double dx = x[i]-x[j], dy = y[i]-y[j];
+        double rsum = radius[i]+radius[j];
+        return dx*dx+dy*dy < rsum*rsum;
+    }
+    
+    /**
+     * Check all balls for collisions with the walls, bouncing any that have
+     * hit it. The boundary handles whole blocks of balls at a time, and with
+     * the threads set by Set_Threads the blocks are done in parallel, as the 
+     * boundary keeps no state while doing so
+     * @param cells partition which is up to date with the ball positions, so
+     * only balls in its wall adjacent cells need checking, or null to check
+     * every ball
+     */
+    private void WallCollisions(CellList cells){
+        if(wallPrediction && store==null){
+            PredictedWallCollisions();
+            return;
+        }
+        if(cells!=null){
+            if(pool!=null){
+                pool.submit(() -> IntStream.range(0, cells.wallCells.length).parallel().forEach(k -> 
+                    WallCell(cells, cells.wallCells[k])
+                )).join();
+                return;
+            }
+            for(int c: cells.wallCells){
+                WallCell(cells, c);
+            }
+            return;
+        }
+        if(pool!=null){
+            int n_blocks = (n_balls+WALL_BLOCK-1)/WALL_BLOCK;
+            pool.submit(() -> IntStream.range(0, n_blocks).parallel().forEach(b -> 
+                Bounce_Block(b*WALL_BLOCK, Math.min(n_balls, (b+1)*WALL_BLOCK))
+            )).join();
+            return;
+        }
+        
+        Bounce_Block(0, n_balls);
+    }
+    
+    /**
+     * Bounce a range of balls off the walls, with the Vector API if chosen
+     * @param from index of first ball
+     * @param to index after the last ball
+     */
+    private void Bounce_Block(int from, int to){
+        if(simd){
+            bounds.Bounce_All_Simd(x, y, vx, vy, radius, from, to);
+        }
+        else{
+            bounds.Bounce_All(x, y, vx, vy, radius, from, to);
+        }
+    }
+    
+    /**
+     * Check the balls in one partition cell for collisions with the walls.
+     * Balls with consecutive indices, as they are once Reorder has sorted 
+     * them by cell, are handed to the boundary in one go
+     * @param cells partition
+     * @param c index of cell
+     */
+    private void WallCell(CellList cells, int c){
+        if(store!=null){
+            store.Bounce_Cell(c, bounds, radius);
+            return;
+        }
+        int cellOrder[] = cells.cellOrder, end = cells.cellEnd[c];
+        int p = cells.cellStart[c];
+        while(p<end){
+            int from = cellOrder[p++], to = from+1;
+            while(p<end && cellOrder[p]==to){
+                p++;
+                to++;
+            }
+            bounds.Bounce_All(x, y, vx, vy, radius, from, to);
+        }
+    }
+    
+    /**
+     * Check for collisions with the walls only for balls which have reached
+     * the time they were predicted to next hit it, and predict again for 
+     * those. With the threads set by Set_Threads the balls are done in 
+     * blocks in parallel, each thread passing the boundary its own scratch
+     * space
+     */
+    private void PredictedWallCollisions(){
+        if(nextWall==null){
+            nextWall = new double[n_balls];
+            Arrays.fill(nextWall, Double.NEGATIVE_INFINITY);
+        }
+        
+        if(pool!=null){
+            int n_blocks = (n_balls+WALL_BLOCK-1)/WALL_BLOCK;
+            pool.submit(() -> IntStream.range(0, n_blocks).parallel().forEach(b -> 
+                Predict_Block(b*WALL_BLOCK, Math.min(n_balls, (b+1)*WALL_BLOCK))
+            )).join();
+            return;
+        }
+        Predict_Block(0, n_balls);
+    }
+    
+    /**
+     * Bounce and predict again the balls in a range which have reached the
+     * time they were predicted to next hit the wall
+     * @param from index of first ball
+     * @param to index after the last ball
+     */
+    private void Predict_Block(int from, int to){
+        Contact contact = wallContact.get();
+        for(int i=from; i<to; i++){
+            if(clock<nextWall[i]){
+                continue;
+            }
+            bounds.Bounce_All(x, y, vx, vy, radius, i, i+1);
+            nextWall[i] = clock+bounds.Next_Hit_Time(x[i], y[i], vx[i], vy[i], radius[i], contact);
+        }
     }
     
     /**
@@ -316,103 +994,423 @@ public class BallSim {
      * ball velocities according to elastic collision rules when they occur
      */
     public void Collisions(){        
+        events = null;
+        Unpack();
         //Check for collisions between pairs of balls
         //TO DO: update detection based on binary space partition for speed
         for(int i=0; i<n_balls; i++){
             for(int j=i+1; j<n_balls; j++){
-                if(loc.column(i).sub(loc.column(j)).magnitude()<radius[i]+radius[j]){                    
+                if(Overlapping(i,j)){                    
                     Collide(i,j);
                 }
             }
         }
         
         //Check for collisions with the walls
-        for(int i=0; i<n_balls; i++){
-            if(bounds.OutOfBounds(loc.column(i), radius[i])){
-                try{
-                    Matrix temp = bounds.Bounce(loc.column(i), vel.column(i), radius[i]);
-                    loc.setCol(i, temp.column(0));
-                    vel.setCol(i, temp.column(1));
-                }catch(Exception e){}
-            }
-        }
+        WallCollisions(null);
     }
     
     /**
      * Check for collisions between balls and walls and each other. Update
- ball velocities according to elastic collision rules when they occur
- 
- Uses a binary space partition for calculations - the full billiard is
- split into partitionBoxes slightly larger than a ball. This means balls can only 
- collide with those in adjacent partitionBoxes, meaning that the length of 
- needed nested loop to check for collisions is much shorter
+     * ball velocities according to elastic collision rules when they occur
+     * 
+     * Uses a binary space partition for calculations - the full billiard is
+     * split into cells slightly larger than a ball. This means balls can only 
+     * collide with those in adjacent cells, meaning that the length of 
+     * needed nested loop to check for collisions is much shorter. How the 
+     * partition is used to find candidate pairs is set by Set_Broadphase
      */
     public void CollisionsBSP(){        
+        events = null;
         
-        //Clear all the lists of which balls are in each bounding box
-        for(int i=0; i<nbox_x; i++){
-            for(int j=0; j<nbox_y; j++){
-                partitionBoxes[i][j].clear();
-            }
+        if(storage!=Storage.HEAP){
+            Pack();
+            GridCollisions();
+            WallCollisions(partition);
+            return;
         }
         
-        //Calculate which bounding box balls are inside
-        for(int i=0; i<n_balls; i++){
-            Vector rel_pos_to_corner = loc.column(i).sub(partitionCorner);
-            int box_x = (int)(rel_pos_to_corner.get(0)/max_radius);
-            int box_y = (int)(rel_pos_to_corner.get(1)/max_radius);
-            partitionBoxes[box_x][box_y].add(i);
+        if(reorderInterval>0 && ++stepsSinceReorder>=reorderInterval){
+            Reorder();
+        }
+        
+        if(decompose && pool!=null && broadphase==Broadphase.GRID && !twoPhase && !wallPrediction){
+            DomainCollisions();
+            return;
+        }
+        //The partition was last sorted by the strips, without the slots an
+        //incremental update needs
+        if(domains!=null){
+            CollisionBoxes();
+        }
+        
+        switch(broadphase){
+            case NEIGHBOUR_LIST:
+                NeighbourCollisions();
+                break;
+            case SWEEP_AND_PRUNE:
+                SweepCollisions();
+                break;
+            case HIERARCHICAL_GRID:
+                LevelCollisions();
+                break;
+            case HASHED_GRID:
+                HashedCollisions();
+                break;
+            default:
+                GridCollisions();
         }
-             
-        //Loop over the partitionBoxes to start looking for collisions
-        for(int i=0; i<nbox_x; i++){
-            for(int j=0; j<nbox_y; j++){
                 
-                if(partitionBoxes[i][j].isEmpty()){
+        //Check for collisions with the walls, only near them if the grid is
+        //up to date
+        WallCollisions(broadphase==Broadphase.GRID ? partition : null);
+    }
+    
+    /**
+     * Check for and carry out collisions between balls in the same or 
+     * adjacent partition cells
+     */
+    private void GridCollisions(){
+        SortPartition();
+        
+        if(twoPhase){
+            TwoPhaseGridCollisions();
+            return;
+        }
+        if(pool!=null){
+            TiledGridCollisions();
+            return;
+        }
+        
+        int nx = partition.nx;
+             
+        //Loop over the cells to start looking for collisions, skipping 
+        //those outside the billiard
+        for(int c: partition.insideCells){
+            CellCollisions(c%nx, c/nx, null);
+        }
+    }
+    
+    /**
+     * Check for and carry out collisions between balls and with the walls,
+     * with each thread working on the balls in its own strip of the 
+     * partition. Strips first bin their own balls, then check every row but
+     * their last, then their last rows, which reach into the next strip, 
+     * then their wall cells. Finally the strip edges are rebalanced on the 
+     * work done
+     */
+    private void DomainCollisions(){
+        if(partition==null){
+            partition = New_Partition();
+        }
+        boolean reclassified = Check_Reach();
+        if(domains==null){
+            domains = new Domains(partition, pool.getParallelism(), x, y);
+        }
+        else if(reclassified){
+            domains.Wall_Ranges();
+        }
+        Domains strips = domains;
+        int n_domains = strips.n_domains, nx = partition.nx;
+        int rowStart[] = strips.rowStart, wallStart[] = strips.wallStart, wallCells[] = partition.wallCells;
+        long rowWork[] = strips.rowWork;
+        
+        //Hand balls to the strips they are now in, then bin
+        pool.submit(() -> IntStream.range(0, n_domains).parallel().forEach(k -> 
+            strips.Find_Leavers(k, x, y)
+        )).join();
+        strips.Migrate();
+        int offset[] = strips.Offsets();
+        pool.submit(() -> IntStream.range(0, n_domains).parallel().forEach(k -> 
+            strips.Bin(k, offset[k])
+        )).join();
+        
+        //Every row but the last of each strip, then the last rows
+        for(int seam=0; seam<2; seam++){
+            boolean last = seam==1;
+            pool.submit(() -> IntStream.range(0, n_domains).parallel().forEach(k -> {
+                int from = last ? rowStart[k+1]-1 : rowStart[k], to = last ? rowStart[k+1] : rowStart[k+1]-1;
+                for(int j=from; j<to; j++){
+                    long tests = 0;
+                    for(int i=0; i<nx; i++){
+                        tests += CellCollisions(i, j, null);
+                    }
+                    rowWork[j] = tests;
+                }
+            })).join();
+        }
+        
+        pool.submit(() -> IntStream.range(0, n_domains).parallel().forEach(k -> {
+            for(int w=wallStart[k]; w<wallStart[k+1]; w++){
+                int c = wallCells[w];
+                WallCell(partition, c);
+                rowWork[c/nx] += partition.cellEnd[c]-partition.cellStart[c];
+            }
+        })).join();
+        
+        strips.Balance();
+    }
+    
+    /**
+     * Find every pair of overlapping balls in the partition and when they 
+     * first touched, without changing any state, then resolve the contacts
+     * in order of when they happened. A contact is skipped if resolving an
+     * earlier one has already separated its balls
+     */
+    private void TwoPhaseGridCollisions(){
+        int ny = partition.ny;
+        if(rowContacts==null || rowContacts.length!=ny){
+            rowContacts = new ContactBuffer[ny];
+            for(int j=0; j<ny; j++){
+                rowContacts[j] = new ContactBuffer();
+            }
+        }
+        
+        //Detect, one buffer per row so rows can be done in parallel
+        if(pool!=null){
+            pool.submit(() -> IntStream.range(0, ny).parallel().forEach(this::DetectRow)).join();
+        }
+        else{
+            for(int j=0; j<ny; j++){
+                DetectRow(j);
+            }
+        }
+        
+        contacts.Clear();
+        for(int j=0; j<ny; j++){
+            contacts.Append(rowContacts[j]);
+        }
+        contacts.Sort();
+        
+        //Resolve
+        int order[] = contacts.order, ballA[] = contacts.ballA, ballB[] = contacts.ballB;
+        for(int k=0; k<contacts.n_contacts; k++){
+            int i = ballA[order[k]], j = ballB[order[k]];
+            if(Overlapping(i,j)){
+                Collide(i,j);
+            }
+        }
+    }
+    
+    /**
+     * Record the contacts found from the cells of one row of the partition
+     * @param j row of cells
+     */
+    private void DetectRow(int j){
+        rowContacts[j].Clear();
+        for(int i=0; i<partition.nx; i++){
+            CellCollisions(i, j, rowContacts[j]);
+        }
+    }
+    
+    /**
+     * Check for and carry out collisions between balls in the same or 
+     * adjacent partition cells, spread over the threads of the pool.
+     * 
+     * Cells are grouped into square tiles, and the tiles are coloured in a 
+     * 2x2 pattern. Checking a cell touches only balls in the cell, the cell 
+     * to its right and the three cells above, so two tiles of the same colour
+     * never touch the same ball. The tiles of each colour are processed in 
+     * parallel, one colour after another. Each tile is processed in order, so
+     * the result does not depend on the number of threads
+     */
+    private void TiledGridCollisions(){
+        int nx = partition.nx, ny = partition.ny;
+        int ntx = (nx+TILE-1)/TILE, nty = (ny+TILE-1)/TILE;
+        int colour_x = (ntx+1)/2, colour_y = (nty+1)/2;
+        
+        for(int colour=0; colour<4; colour++){
+            int ox = colour%2, oy = colour/2;
+            pool.submit(() -> IntStream.range(0, colour_x*colour_y).parallel().forEach(t -> {
+                int tx = 2*(t%colour_x)+ox, ty = 2*(t/colour_x)+oy;
+                if(tx>=ntx || ty>=nty){
+                    return;
+                }
+                for(int j=ty*TILE; j<Math.min(ny, (ty+1)*TILE); j++){
+                    for(int i=tx*TILE; i<Math.min(nx, (tx+1)*TILE); i++){
+                        CellCollisions(i, j, null);
+                    }
+                }
+            })).join();
+        }
+    }
+    
+    /**
+     * Check for and carry out collisions between the balls of one partition
+     * cell and the balls in the same cell or in half of the adjacent cells,
+     * so each pair of cells is only checked once
+     * @param i column of cell
+     * @param j row of cell
+     * @param found buffer to record contacts in without resolving them, or
+     * null to resolve each contact immediately
+     * @return number of pairs of balls tested
+     */
+    private int CellCollisions(int i, int j, ContactBuffer found){
+        int cellStart[] = partition.cellStart, cellEnd[] = partition.cellEnd, cellOrder[] = partition.cellOrder;
+        int nx = partition.nx, ny = partition.ny;
+        
+        int c = j*nx+i;
+        if(partition.kind[c]==CellList.OUTSIDE){
+            return 0;
+        }
+        int start = cellStart[c], end = cellEnd[c];
+        int tests = 0;
+        
+        for(int p=start; p<end; p++){ //loop over particles in the current cell
+
+            int ball_p = cellOrder[p];
+
+            //Remaining balls in the same cell
+            tests += end-p-1;
+            for(int q=p+1; q<end; q++){
+                int ball_q = cellOrder[q];
+                if(Overlapping(ball_p,ball_q)){
+                    Contact(ball_p, ball_q, found);
+                }
+            }
+
+            //Half of the adjacent cells, so each pair of cells is only checked once
+            for(int s[]: CellList.HALF_SHELL){
+                int m = i+s[0], n = j+s[1];
+                if(m<0 || m>=nx || n>=ny){
                     continue;
                 }
-                                
-                for(int p=0; p<partitionBoxes[i][j].size(); p++){ //loop over particles in the current box
-                    
-                    int ball_p = partitionBoxes[i][j].get(p);
-                
-                    for(int m=-1; m<=1; m++){ //loop over adjacent partitionBoxes
-                        for(int n=-1; n<=1; n++){
-                            
-                            if(i+m<0 || j+n<0 || i+m>=nbox_x || j+n>=nbox_y){
-                                continue;
-                            }
-                            
-                            for(int q=0; q<partitionBoxes[i+m][j+n].size(); q++){ //loop over balls in adjacent partitionBoxes
-                                
-                                int ball_q = partitionBoxes[i+m][j+n].get(q);
-                                
-                                //Order collisions by ball number to prevent repeat calculations and check for collision
-                                if(ball_q>=ball_p || loc.column(ball_p).sub(loc.column(ball_q)).magnitude() > radius[ball_p]+radius[ball_q]){
-                                    continue;
-                                }
-                                
-                                Collide(ball_p,ball_q);
-                                
-                            }
-                        }
+
+                int d = n*nx+m;
+                tests += cellEnd[d]-cellStart[d];
+                for(int q=cellStart[d]; q<cellEnd[d]; q++){ //loop over balls in adjacent cell
+                    int ball_q = cellOrder[q];
+                    if(Overlapping(ball_p,ball_q)){
+                        Contact(ball_p, ball_q, found);
                     }
                 }
             }
         }
-                
-        //Check for collisions with the walls
+        return tests;
+    }
+    
+    /**
+     * Either resolve a contact between two overlapping balls straight away,
+     * or record it along with when the balls first touched
+     * @param i index of first ball
+     * @param j index of second ball
+     * @param found buffer to record the contact in, or null to resolve it
+     */
+    private void Contact(int i, int j, ContactBuffer found){
+        if(found==null){
+            Collide(i,j);
+            return;
+        }
+        double tcorrec = store!=null ? store.Contact_Time(i, j, radius) : 
+                Formulae.whenCirclesIntersected(x[i]-x[j], y[i]-y[j], vx[i]-vx[j], vy[i]-vy[j], radius[i], radius[j]);
+        if(!Double.isNaN(tcorrec)){
+            found.Add(i, j, -tcorrec);
+        }
+    }
+    
+    /**
+     * Check for and carry out collisions between each ball and the balls in
+     * its neighbour list, rebuilding the lists first if they are stale
+     */
+    private void NeighbourCollisions(){
+        if(neighbours==null){
+            neighbours = new NeighbourList(n_balls, neighbourSkin>0 ? neighbourSkin : 0.5*max_radius);
+        }
+        if(neighbours.Stale(x, y)){
+            SortPartition();
+            neighbours.Build(partition, x, y, radius, max_radius);
+        }
+        
+        int nbrStart[] = neighbours.nbrStart, nbrList[] = neighbours.nbrList;
         for(int i=0; i<n_balls; i++){
-            if(bounds.OutOfBounds(loc.column(i), radius[i])){
-                try{
-                    Matrix temp = bounds.Bounce(loc.column(i), vel.column(i), radius[i]);
-                    loc.setCol(i, temp.column(0));
-                    vel.setCol(i, temp.column(1));
-                }catch(Exception e){}
+            for(int k=nbrStart[i]; k<nbrStart[i+1]; k++){
+                int j = nbrList[k];
+                if(Overlapping(i,j)){
+                    Collide(i,j);
+                }
             }
         }
-    } 
+    }
    
+    /**
+     * Check for and carry out collisions between balls found by sweeping 
+     * along the x axis. The pairs are all found before any are resolved, 
+     * and are resolved in sweep order, so the results differ from 
+     * GridCollisions, which resolves pairs in cell order and so also 
+     * catches overlaps made by an earlier collision's correction
+     */
+    private void SweepCollisions(){
+        if(sweep==null){
+            sweep = new SweepAndPrune(n_balls);
+        }
+        sweep.Sweep(x, y, radius);
+        
+        int pairA[] = sweep.pairA, pairB[] = sweep.pairB;
+        for(int k=0; k<sweep.n_pairs; k++){
+            if(Overlapping(pairA[k],pairB[k])){
+                Collide(pairA[k],pairB[k]);
+            }
+        }
+    }
+    
+    /**
+     * Check for and carry out collisions between balls found using a grid
+     * with a level for each size of ball
+     */
+    private void LevelCollisions(){
+        if(levels==null){
+            levels = new HierarchicalGrid(bounding_box, radius);
+        }
+        levels.Build(x, y, radius);
+        
+        int pairA[] = levels.pairA, pairB[] = levels.pairB;
+        for(int k=0; k<levels.n_pairs; k++){
+            if(Overlapping(pairA[k],pairB[k])){
+                Collide(pairA[k],pairB[k]);
+            }
+        }
+    }
+    
+    /**
+     * Check for and carry out collisions between balls in the same or 
+     * adjacent occupied cells of a hashed grid
+     */
+    private void HashedCollisions(){
+        if(hashed==null){
+            hashed = new HashedGrid(n_balls, 2.25*max_radius);
+        }
+        hashed.Build(x, y);
+        
+        int cellStart[] = hashed.cellStart, order[] = hashed.order;
+        for(int c=0; c<hashed.n_cells; c++){
+            int start = cellStart[c], end = cellStart[c+1];
+            
+            for(int p=start; p<end; p++){
+                int ball_p = order[p];
+                
+                //Balls in the same cell
+                for(int q=p+1; q<end; q++){
+                    if(Overlapping(ball_p,order[q])){
+                        Collide(ball_p,order[q]);
+                    }
+                }
+                
+                //Balls in occupied neighbouring cells
+                for(int s[]: CellList.HALF_SHELL){
+                    int d = hashed.Find(hashed.cellI[c]+s[0], hashed.cellJ[c]+s[1]);
+                    if(d<0){
+                        continue;
+                    }
+                    for(int q=cellStart[d]; q<cellStart[d+1]; q++){
+                        if(Overlapping(ball_p,order[q])){
+                            Collide(ball_p,order[q]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
     /**
      * Run the simulation for the given length of time
      * @param nSteps number of steps to simulate
@@ -425,6 +1423,24 @@ public class BallSim {
         }
     }
     
+    /**
+     * Run the simulation for the given length of time using exact event 
+     * driven dynamics instead of fixed timesteps. Every ball-ball and 
+     * ball-wall contact is resolved at the moment it happens, and the 
+     * simulation can be stopped at any time, not just multiples of dt. 
+     * Predicted contacts are kept between calls, so repeated short calls 
+     * are cheap as long as the state isn't changed in between
+     * @param duration length of time to simulate
+     */
+    public void Simulate_Events(double duration){
+        Unpack();
+        if(events==null || !events.Uses(x, y, vx, vy, radius, mass)){
+            events = new EventEngine(x, y, vx, vy, radius, mass, bounds);
+        }
+        events.Advance(duration);
+        nextWall = null;
+    }
+    
     /**
      * Get the distribution of the momenta of the balls
      * @return histogram of the momentum distribution
@@ -432,7 +1448,8 @@ public class BallSim {
     public int[] momentumSplit(){
         int hist [] = new int[nMomBoxes];
         for(int i=0; i<n_balls; i++){
-            hist[(int)((vel.column(i).magnitude()*mass[i])/momDistBoxWidth)] ++;
+            double vel_x = store!=null ? store.VX(i) : vx[i], vel_y = store!=null ? store.VY(i) : vy[i];
+            hist[(int)((Math.sqrt(vel_x*vel_x+vel_y*vel_y)*mass[i])/momDistBoxWidth)] ++;
         }
         return hist;
     }
@@ -445,7 +1462,10 @@ public class BallSim {
     public int[] radialVelocityDist(){
         int hist[] = new int[nRadBoxes];
         for(int i=0; i<n_balls; i++){
-            hist[(int)((1-Math.abs(loc.column(i).unit().dot(vel.column(i).unit())))*nRadBoxes)]++;
+            double pos_x = store!=null ? store.X(i) : x[i], pos_y = store!=null ? store.Y(i) : y[i];
+            double vel_x = store!=null ? store.VX(i) : vx[i], vel_y = store!=null ? store.VY(i) : vy[i];
+            double cos = (pos_x*vel_x+pos_y*vel_y)/Math.sqrt((pos_x*pos_x+pos_y*pos_y)*(vel_x*vel_x+vel_y*vel_y));
+            hist[(int)((1-Math.abs(cos))*nRadBoxes)]++;
         }
         return hist;
     }
@@ -453,19 +1473,138 @@ public class BallSim {
     
     
     /**
-     * Get the locations of all balls
+     * Get the locations of all balls as a 2 x n_balls Matrix. The Matrix is a
+     * copy of the simulation state
      * @return loc
      */
     public Matrix getLoc(){
-        return loc;
+        if(store!=null){
+            double px[] = new double[n_balls], py[] = new double[n_balls];
+            for(int i=0; i<n_balls; i++){
+                px[i] = store.X(i);
+                py[i] = store.Y(i);
+            }
+            return toMatrix(px, py);
+        }
+        return toMatrix(x, y);
     }
     
     /**
-     * Get the velocities of all balls
+     * Get the velocities of all balls as a 2 x n_balls Matrix. The Matrix is a 
+     * copy of the simulation state
      * @return vel
      */
     public Matrix getVel(){
-        return vel;
+        if(store!=null){
+            double pvx[] = new double[n_balls], pvy[] = new double[n_balls];
+            for(int i=0; i<n_balls; i++){
+                pvx[i] = store.VX(i);
+                pvy[i] = store.VY(i);
+            }
+            return toMatrix(pvx, pvy);
+        }
+        return toMatrix(vx, vy);
+    }
+    
+    /**
+     * Get the radii of all balls, in their original order
+     * @return radii
+     */
+    double[] getRadii(){
+        return External(radius);
+    }
+    
+    /**
+     * Get the masses of all balls, in their original order
+     * @return masses
+     */
+    double[] getMasses(){
+        return External(mass);
+    }
+    
+    /**
+     * Get the radius of the largest ball
+     * @return largest radius
+     */
+    double getMaxRadius(){
+        return max_radius;
+    }
+    
+    /**
+     * Get the boundary of the billiard
+     * @return boundary
+     */
+    Boundary getBoundary(){
+        return bounds;
+    }
+    
+    /**
+     * Get the timestep
+     * @return dt
+     */
+    double getDT(){
+        return dt;
+    }
+    
+    /**
+     * Get the width of each box of the momentum distribution
+     * @return box width
+     */
+    double getMomBoxWidth(){
+        return momDistBoxWidth;
+    }
+    
+    /**
+     * Get the number of boxes in the momentum distribution
+     * @return number of boxes
+     */
+    int getMomBoxes(){
+        return nMomBoxes;
+    }
+    
+    /**
+     * Get the number of boxes in the radial velocity distribution
+     * @return number of boxes
+     */
+    int getRadBoxes(){
+        return nRadBoxes;
+    }
+    
+    /**
+     * Pack a pair of component arrays into a 2 x n_balls Matrix
+     * @param c0 first row
+     * @param c1 second row
+     * @return Matrix with rows c0 and c1
+     */
+    private Matrix toMatrix(double c0[], double c1[]){
+        double vals[][] = {External(c0), External(c1)};
+        return new Matrix(vals);
+    }
+    
+    /**
+     * Copy a per-ball array from original ball order into storage order
+     * @param vals values in original ball order
+     * @return values in storage order
+     */
+    private double[] Internal(double vals[]){
+        double output[] = new double[n_balls];
+        for(int i=0; i<n_balls; i++){
+            output[i] = vals[ids[i]];
+        }
+        return output;
+    }
+    
+    /**
+     * Copy a per-ball array from storage order into original ball order
+     * @param vals values in storage order
+     * @return values in original ball order
+     */
+    private double[] External(double vals[]){
+        double output[] = new double[n_balls];
+        for(int i=0; i<n_balls; i++){
+            output[ids[i]] = vals[i];
+        }
+        return output;
     }
     
     private int counter = 0;
@@ -480,7 +1619,12 @@ public class BallSim {
         StdDraw.setPenColor();
         bounds.Draw();
         for(int i=0; i<n_balls; i++){
-            StdDraw.filledCircle(loc.get(0,i), loc.get(1,i), radius[i]);
+            if(store!=null){
+                StdDraw.filledCircle(store.X(i), store.Y(i), radius[i]);
+            }
+            else{
+                StdDraw.filledCircle(x[i], y[i], radius[i]);
+            }
         }
         //StdDraw.text(3, 1, Integer.toString(counter));
         counter++;
@@ -511,10 +1655,10 @@ public class BallSim {
         bw.write("Boundary: "+bounds.toString()+"\n");
         bw.write("Num Balls: "+n_balls+"\n");
         bw.write("Timestep: "+dt+"\n");
-        bw.write("Masses: "+Arrays.toString(mass)+"\n");
-        bw.write("Radii: "+Arrays.toString(radius)+"\n");
-        bw.write("Positions: "+loc.toString()+"\n");
-        bw.write("Velocities: "+vel.toString()+"\n");
+        bw.write("Masses: "+Arrays.toString(External(mass))+"\n");
+        bw.write("Radii: "+Arrays.toString(External(radius))+"\n");
+        bw.write("Positions: "+getLoc().toString()+"\n");
+        bw.write("Velocities: "+getVel().toString()+"\n");
         bw.close();
     }
     
@@ -566,10 +1710,10 @@ public class BallSim {
      */
     public void printSimData() throws IOException{
         BufferedWriter bw = new BufferedWriter(new FileWriter(baseFileName+"_LOC.txt",true));
-        bw.write(loc.toString()+"\n");
+        bw.write(getLoc().toString()+"\n");
         bw.close();
         bw = new BufferedWriter(new FileWriter(baseFileName+"_VEL.txt",true));
-        bw.write(vel.toString()+"\n");
+        bw.write(getVel().toString()+"\n");
         bw.close();
     }
     
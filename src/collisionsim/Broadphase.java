@@ -0,0 +1,47 @@
+package collisionsim;
+
+/**
+ * Methods available to BallSim for finding which pairs of balls might be
+ * colliding, before the exact overlap test
+ * 
+ * @author cjcode975
+ */
+public enum Broadphase {
+    
+    /**
+     * Sort the balls into a uniform grid every step and test balls in 
+     * adjacent cells
+     */
+    GRID,
+    
+    /**
+     * Keep a list of nearby balls for each ball, built from the grid, and 
+     * reuse it until the balls have moved far enough to need a rebuild
+     */
+    NEIGHBOUR_LIST,
+    
+    /**
+     * Keep the balls sorted along the x axis, repairing the order from the 
+     * previous step, and sweep along it for overlapping pairs. Suits long 
+     * thin billiards where most grid cells would be empty. Collisions are
+     * resolved in a different order from GRID, and overlaps made by one
+     * collision's correction are only found the next step, so the
+     * trajectories are not the same as GRID's, though energy is conserved
+     * just the same
+     */
+    SWEEP_AND_PRUNE,
+    
+    /**
+     * Sort each ball into a grid level with cells sized to its radius, and 
+     * test balls in adjacent cells of the same level and of every coarser 
+     * level. Suits balls with a wide spread of radii
+     */
+    HIERARCHICAL_GRID,
+    
+    /**
+     * Store only the occupied cells of the grid in a hash table, so memory 
+     * and time depend on the number of balls rather than the size of the 
+     * billiard. Suits dilute gases in very large billiards
+     */
+    HASHED_GRID
+}
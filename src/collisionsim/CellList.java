@@ -0,0 +1,309 @@
+package collisionsim;
+
+import Boundaries.Boundary;
+import java.util.Arrays;
+
+/**
+ * Uniform grid partition of the billiard used to find candidate pairs of
+ * colliding balls. Cells are slightly wider than a ball, so a ball can only
+ * touch balls in its own or the eight adjacent cells.
+ *
+ * Cell membership is stored without any per-cell objects: the balls are
+ * counting sorted by cell, so the balls in cell c are
+ * cellOrder[cellStart[c]] ... cellOrder[cellEnd[c]-1]. Cell (i,j) has index 
+ * c = j*nx+i.
+ * 
+ * The grid can either be rebuilt from scratch each step (Build) or kept up to
+ * date incrementally (Update). For incremental use each cell's block of
+ * cellOrder is padded with spare slots, up to cellStart[c+1], so a ball that
+ * crosses into a new cell can be moved there without disturbing any other
+ * cell. Only when a cell runs out of spare slots is a full rebuild needed.
+ *
+ * Once classified against a boundary, each cell is marked as interior (no
+ * ball in it can reach the wall), wall adjacent, or outside (no ball in it 
+ * can be inside the billiard). The walls then only need checking for balls
+ * in the wallCells, and only the insideCells hold balls.
+ *
+ * @author cjcode975
+ */
+class CellList {
+
+    //Half-shell stencil of neighbouring cells, {di, dj}. Together with the
+    //cell itself this visits every pair of adjacent cells exactly once
+    static final int HALF_SHELL[][] = Half_Stencil(1);
+
+    final int nx, ny, n_cells;
+    final double corner_x, corner_y, width;
+
+    //Number of spare slots given to each cell when built for incremental use
+    static final int SLACK = 2;
+
+    final int cellStart[], cellEnd[];
+    int cellOrder[], ballCell[];
+
+    //Number of balls sorted into the grid
+    private int n_balls;
+
+    //Position of each ball in cellOrder
+    private int slot[];
+
+    //Whether the grid has been built at least once
+    private boolean built = false;
+
+    //Kinds of cell found by Classify
+    static final byte INTERIOR = 0, WALL = 1, OUTSIDE = 2;
+
+    //Kind of each cell, and the indices of the wall adjacent cells and of
+    //all cells which are not outside, in increasing order. Before Classify
+    //every cell is treated as wall adjacent
+    byte kind[];
+    int wallCells[], insideCells[];
+
+    //Reach the cells were last classified for
+    private double reach = Double.POSITIVE_INFINITY;
+
+    /**
+     * Create a grid covering a bounding box, with one unit of margin on each
+     * side
+     * @param bounding_box x_min, x_max, y_min, y_max of the billiard
+     * @param cell_width width of each (square) cell, at least the largest
+     * ball diameter
+     * @param N_Balls number of balls to be sorted into the grid
+     */
+    CellList(double bounding_box[], double cell_width, int N_Balls){
+        width = cell_width;
+
+        int zero_box_x = (int)(Math.ceil(-1*(bounding_box[0]-1)/width));
+        int zero_box_y = (int)(Math.ceil(-1*(bounding_box[2]-1)/width));
+
+        nx = (int)(Math.ceil((bounding_box[1]+1)/width))+zero_box_x;
+        ny = (int)(Math.ceil((bounding_box[3]+1)/width))+zero_box_y;
+        n_cells = nx*ny;
+
+        corner_x = -1*width*zero_box_x;
+        corner_y = -1*width*zero_box_y;
+
+        cellStart = new int[n_cells+1];
+        cellEnd = new int[n_cells];
+        n_balls = N_Balls;
+        cellOrder = new int[n_balls];
+        ballCell = new int[n_balls];
+        slot = new int[n_balls];
+
+        kind = new byte[n_cells];
+        Arrays.fill(kind, WALL);
+        wallCells = new int[n_cells];
+        for(int c=0; c<n_cells; c++){
+            wallCells[c] = c;
+        }
+        insideCells = wallCells;
+    }
+
+    /**
+     * Mark each cell by how close it is to the wall of a boundary. The 
+     * distance to the wall changes by at most the distance moved, so 
+     * everywhere in a cell it is within half a cell diagonal of its value
+     * at the centre of the cell
+     * @param boundary boundary of the billiard
+     * @param reach furthest a ball can reach from its centre during a step, 
+     * i.e. its radius plus how far it can move
+     */
+    void Classify(Boundary boundary, double reach){
+        this.reach = reach;
+        double half_diagonal = Math.sqrt(0.5)*width;
+        int n_wall = 0, n_inside = 0;
+        for(int j=0; j<ny; j++){
+            for(int i=0; i<nx; i++){
+                double d = boundary.Distance(corner_x+(i+0.5)*width, corner_y+(j+0.5)*width);
+                byte k = d-half_diagonal>=reach ? INTERIOR : (d+half_diagonal<-reach ? OUTSIDE : WALL);
+                kind[j*nx+i] = k;
+                if(k==WALL){
+                    n_wall++;
+                }
+                if(k!=OUTSIDE){
+                    n_inside++;
+                }
+            }
+        }
+
+        wallCells = new int[n_wall];
+        insideCells = new int[n_inside];
+        n_wall = 0;
+        n_inside = 0;
+        for(int c=0; c<n_cells; c++){
+            if(kind[c]==WALL){
+                wallCells[n_wall++] = c;
+            }
+            if(kind[c]!=OUTSIDE){
+                insideCells[n_inside++] = c;
+            }
+        }
+    }
+
+    /**
+     * Classify the cells again if a ball may now reach further in a step 
+     * than they were classified for, allowing for the step to double before
+     * this is needed again. Does nothing before the first Classify
+     * @param boundary boundary of the billiard
+     * @param max_radius largest ball radius
+     * @param step furthest a ball can move in a step
+     * @return whether the cells were classified again
+     */
+    boolean Cover_Step(Boundary boundary, double max_radius, double step){
+        if(max_radius+step<=reach){
+            return false;
+        }
+        Classify(boundary, max_radius+2*step);
+        return true;
+    }
+
+    /**
+     * Build the half-shell stencil reaching a given number of cells out in 
+     * each direction, i.e. every offset {di, dj} with |di|,|dj| <= rings 
+     * lying after the centre cell in row-major order
+     * @param rings how many cells out the stencil reaches
+     * @return list of {di, dj} offsets
+     */
+    static int[][] Half_Stencil(int rings){
+        int stencil[][] = new int[rings*(2*rings+2)][];
+        int k = 0;
+        for(int di=1; di<=rings; di++){
+            stencil[k++] = new int[]{di, 0};
+        }
+        for(int dj=1; dj<=rings; dj++){
+            for(int di=-rings; di<=rings; di++){
+                stencil[k++] = new int[]{di, dj};
+            }
+        }
+        return stencil;
+    }
+
+    /**
+     * Get the x index of the column of cells containing a position, clamped
+     * to the grid
+     * @param x x position
+     * @return column index
+     */
+    int cellX(double x){
+        int i = (int)((x-corner_x)/width);
+        return i<0 ? 0 : (i>=nx ? nx-1 : i);
+    }
+
+    /**
+     * Get the y index of the row of cells containing a position, clamped to
+     * the grid
+     * @param y y position
+     * @return row index
+     */
+    int cellY(double y){
+        int j = (int)((y-corner_y)/width);
+        return j<0 ? 0 : (j>=ny ? ny-1 : j);
+    }
+
+    /**
+     * Get the index of the cell containing a position
+     * @param x x position
+     * @param y y position
+     * @return cell index
+     */
+    int cell(double x, double y){
+        return cellY(y)*nx+cellX(x);
+    }
+
+    /**
+     * Change the number of balls to be sorted into the grid, for users whose
+     * balls come and go. The grid must be built again before it is used
+     * @param count new number of balls
+     */
+    void Set_Ball_Count(int count){
+        if(count>ballCell.length){
+            int capacity = Math.max(count, 2*ballCell.length);
+            ballCell = Arrays.copyOf(ballCell, capacity);
+            slot = Arrays.copyOf(slot, capacity);
+        }
+        n_balls = count;
+        built = false;
+    }
+
+    /**
+     * Sort all balls into their cells from scratch
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param slack number of spare slots to leave in each cell for later 
+     * incremental updates
+     */
+    void Build(double x[], double y[], int slack){
+        for(int i=0; i<n_balls; i++){
+            ballCell[i] = cell(x[i], y[i]);
+        }
+        Sort(slack);
+    }
+
+    /**
+     * Sort all balls from scratch into the cells already recorded for them 
+     * in ballCell
+     * @param slack number of spare slots to leave in each cell for later 
+     * incremental updates
+     */
+    void Sort(int slack){
+
+        //Count the balls in each cell
+        Arrays.fill(cellStart, 0);
+        for(int i=0; i<n_balls; i++){
+            cellStart[ballCell[i]+1]++;
+        }
+
+        //Running total gives the start of each cell in cellOrder
+        for(int c=0; c<n_cells; c++){
+            cellStart[c+1] += cellStart[c]+slack;
+        }
+        if(cellOrder.length<cellStart[n_cells]){
+            cellOrder = new int[cellStart[n_cells]];
+        }
+
+        //Place each ball
+        System.arraycopy(cellStart, 0, cellEnd, 0, n_cells);
+        for(int i=0; i<n_balls; i++){
+            slot[i] = cellEnd[ballCell[i]]++;
+            cellOrder[slot[i]] = i;
+        }
+        built = true;
+    }
+
+    /**
+     * Bring the grid up to date after the balls have moved, only touching 
+     * balls which have changed cell. Falls back to a full Build, with spare
+     * slots, if the grid has never been built or a cell overflows
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     */
+    void Update(double x[], double y[]){
+        if(!built){
+            Build(x, y, SLACK);
+            return;
+        }
+
+        for(int i=0; i<n_balls; i++){
+            int c = cell(x[i], y[i]);
+            int old_c = ballCell[i];
+            if(c==old_c){
+                continue;
+            }
+
+            if(cellEnd[c]==cellStart[c+1]){
+                Build(x, y, SLACK);
+                return;
+            }
+
+            //Fill the gap left in the old cell with its last ball
+            int last = cellOrder[--cellEnd[old_c]];
+            cellOrder[slot[i]] = last;
+            slot[last] = slot[i];
+
+            //Append to the new cell
+            slot[i] = cellEnd[c]++;
+            cellOrder[slot[i]] = i;
+            ballCell[i] = c;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package collisionsim;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer of detected ball-ball contacts, held as primitive arrays.
+ * Contact k is between balls ballA[k] and ballB[k], which first touched at
+ * time[k] relative to the current time (so times are not positive).
+ *
+ * Sort puts the contacts in a fixed order, earliest first, with ties broken
+ * on the ball numbers, so the order never depends on the order the contacts
+ * were found in.
+ *
+ * @author cjcode975
+ */
+class ContactBuffer {
+
+    int n_contacts = 0;
+    int ballA[] = new int[16], ballB[] = new int[16];
+    double time[] = new double[16];
+
+    //Contact indices in sorted order, and scratch space for sorting
+    int order[] = new int[16];
+    private int scratch[] = new int[16];
+
+    /**
+     * Remove all contacts
+     */
+    void Clear(){
+        n_contacts = 0;
+    }
+
+    /**
+     * Record a contact
+     * @param i index of first ball
+     * @param j index of second ball
+     * @param t time the balls first touched
+     */
+    void Add(int i, int j, double t){
+        if(n_contacts==ballA.length){
+            Grow(2*n_contacts);
+        }
+        ballA[n_contacts] = i;
+        ballB[n_contacts] = j;
+        time[n_contacts] = t;
+        n_contacts++;
+    }
+
+    /**
+     * Add all contacts held by another buffer
+     * @param other buffer to copy from
+     */
+    void Append(ContactBuffer other){
+        int total = n_contacts+other.n_contacts;
+        if(total>ballA.length){
+            Grow(Math.max(total, 2*ballA.length));
+        }
+        System.arraycopy(other.ballA, 0, ballA, n_contacts, other.n_contacts);
+        System.arraycopy(other.ballB, 0, ballB, n_contacts, other.n_contacts);
+        System.arraycopy(other.time, 0, time, n_contacts, other.n_contacts);
+        n_contacts = total;
+    }
+
+    /**
+     * Fill order with the contact indices sorted by time, then ball numbers
+     */
+    void Sort(){
+        if(order.length<n_contacts){
+            order = new int[ballA.length];
+            scratch = new int[ballA.length];
+        }
+        for(int k=0; k<n_contacts; k++){
+            order[k] = k;
+        }
+        //Bottom up merge sort
+        int src[] = order, dst[] = scratch;
+        for(int width=1; width<n_contacts; width*=2){
+            for(int lo=0; lo<n_contacts; lo+=2*width){
+                int mid = Math.min(lo+width, n_contacts), hi = Math.min(lo+2*width, n_contacts);
+                int p = lo, q = mid;
+                for(int k=lo; k<hi; k++){
+                    if(q>=hi || (p<mid && !Before(src[q], src[p]))){
+                        dst[k] = src[p++];
+                    }
+                    else{
+                        dst[k] = src[q++];
+                    }
+                }
+            }
+            int swap[] = src;
+            src = dst;
+            dst = swap;
+        }
+        if(src!=order){
+            System.arraycopy(src, 0, order, 0, n_contacts);
+        }
+    }
+
+    /**
+     * Check if one contact comes strictly before another in the sorted order
+     * @param k index of first contact
+     * @param l index of second contact
+     * @return if contact k comes first
+     */
+    private boolean Before(int k, int l){
+        if(time[k]!=time[l]){
+            return time[k]<time[l];
+        }
+        if(ballA[k]!=ballA[l]){
+            return ballA[k]<ballA[l];
+        }
+        return ballB[k]<ballB[l];
+    }
+
+    /**
+     * Enlarge the buffer
+     * @param capacity new number of contacts that can be held
+     */
+    private void Grow(int capacity){
+        ballA = Arrays.copyOf(ballA, capacity);
+        ballB = Arrays.copyOf(ballB, capacity);
+        time = Arrays.copyOf(time, capacity);
+    }
+}
@@ -0,0 +1,357 @@
+package collisionsim;
+
+import Physics.Matrix;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Driver for a simulation split over several RegionWorker processes, each of
+ * which owns the balls in one horizontal strip of the billiard. The driver
+ * hands out the balls of a BallSim, then only sends commands and gathers
+ * results, while the workers pass balls crossing between strips straight to
+ * each other.
+ *
+ * Strip edges are placed so each worker starts with about the same number of
+ * balls, and are then fixed. Every strip must be at least two ball
+ * diameters high, so a ball can only touch balls in its own or the adjacent
+ * strips, and never those in both at once. A ball which crosses more than
+ * one strip in a step is passed on again the next step.
+ *
+ * @author cjcode975
+ */
+public class DistributedSim {
+
+    //How long to keep trying to reach a worker which is still starting
+    private static final long CONNECT_TIMEOUT = 30000;
+
+    //Options of this JVM which are passed on to workers started by 
+    //Launch_Local, and those whose value is the argument after them
+    private static final String WORKER_OPTIONS[] = {"--enable-preview", "--add-modules", "-Xmx", "-Xms", "-Xss"};
+    private static final String SPLIT_OPTIONS[] = {"--add-modules"};
+
+    private final BallSim sim;
+    private final int n_workers;
+    private final Socket workers[];
+    private final DataInputStream in[];
+    private final DataOutputStream out[];
+    private List<Process> processes = new ArrayList<>();
+
+    /**
+     * Connect to running workers and hand them the balls of a simulation.
+     * Worker k is given the k-th strip from the bottom
+     * @param simulation simulation to take the balls and settings from
+     * @param hosts host of each worker
+     * @param ports port each worker is listening on
+     * @throws IOException if a worker cannot be reached
+     */
+    public DistributedSim(BallSim simulation, String hosts[], int ports[]) throws IOException{
+        sim = simulation;
+        n_workers = hosts.length;
+        workers = new Socket[n_workers];
+        in = new DataInputStream[n_workers];
+        out = new DataOutputStream[n_workers];
+
+        //Every worker must take the driver's connection before that of its
+        //neighbour, so connect to all of them before setting any up
+        for(int k=0; k<n_workers; k++){
+            workers[k] = Connect(hosts[k], ports[k]);
+            workers[k].setTcpNoDelay(true);
+            in[k] = new DataInputStream(new BufferedInputStream(workers[k].getInputStream()));
+            out[k] = new DataOutputStream(new BufferedOutputStream(workers[k].getOutputStream()));
+        }
+        Setup(hosts, ports);
+    }
+
+    /**
+     * Start workers as new processes on this machine, listening on
+     * consecutive ports, and hand them the balls of a simulation. The
+     * workers run with the same Java and class path as this process, and 
+     * its options for preview features, modules and memory. Other options,
+     * such as agents, are not passed on, as each worker would try to take 
+     * the same debugger port or output files
+     * @param simulation simulation to take the balls and settings from
+     * @param N_Workers number of workers
+     * @param first_port port for the first worker
+     * @return driver for the workers
+     * @throws IOException if a worker cannot be started or reached
+     */
+    public static DistributedSim Launch_Local(BallSim simulation, int N_Workers, int first_port) throws IOException{
+        String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+        List<Process> started = new ArrayList<>();
+        String hosts[] = new String[N_Workers];
+        int ports[] = new int[N_Workers];
+        try{
+            for(int k=0; k<N_Workers; k++){
+                List<String> command = new ArrayList<>();
+                command.add(java);
+                command.addAll(Worker_Options(ManagementFactory.getRuntimeMXBean().getInputArguments()));
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(RegionWorker.class.getName());
+                command.add(Integer.toString(first_port+k));
+                started.add(new ProcessBuilder(command).inheritIO().start());
+                hosts[k] = "localhost";
+                ports[k] = first_port+k;
+            }
+            DistributedSim driver = new DistributedSim(simulation, hosts, ports);
+            driver.processes = started;
+            return driver;
+        }
+        catch(IOException e){
+            for(Process p: started){
+                p.destroy();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Pick out the options of this JVM which workers need to run the same
+     * way, keeping any value given as a separate argument with its option
+     * @param options options this JVM was started with
+     * @return options to start workers with
+     */
+    private static List<String> Worker_Options(List<String> options){
+        List<String> kept = new ArrayList<>();
+        for(int k=0; k<options.size(); k++){
+            String option = options.get(k);
+            for(String wanted: WORKER_OPTIONS){
+                if(option.startsWith(wanted)){
+                    kept.add(option);
+                    if(Arrays.asList(SPLIT_OPTIONS).contains(option) && k+1<options.size()){
+                        kept.add(options.get(++k));
+                    }
+                    break;
+                }
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Connect to a worker, retrying while it is still starting up
+     * @param host host of the worker
+     * @param port port the worker is listening on
+     * @return connection to the worker
+     * @throws IOException if the worker cannot be reached in time
+     */
+    private static Socket Connect(String host, int port) throws IOException{
+        long give_up = System.currentTimeMillis()+CONNECT_TIMEOUT;
+        while(true){
+            try{
+                return new Socket(host, port);
+            }
+            catch(ConnectException e){
+                if(System.currentTimeMillis()>give_up){
+                    throw e;
+                }
+                try{
+                    Thread.sleep(100);
+                }
+                catch(InterruptedException ie){
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Split the balls into strips of about equal numbers and send each
+     * worker its strip, from the bottom up so each can connect to the one
+     * above it
+     * @param hosts host of each worker
+     * @param ports port each worker is listening on
+     * @throws IOException if a worker's connection fails
+     */
+    private void Setup(String hosts[], int ports[]) throws IOException{
+        Matrix loc = sim.getLoc(), vel = sim.getVel();
+        double radius[] = sim.getRadii(), mass[] = sim.getMasses();
+        int n_balls = radius.length;
+        double halo = 2*sim.getMaxRadius();
+
+        //Order the balls by height, and put each edge half way between the
+        //last ball of one strip and the first of the next
+        Integer order[] = new Integer[n_balls];
+        for(int i=0; i<n_balls; i++){
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(loc.get(1, a), loc.get(1, b)));
+        int first[] = new int[n_workers+1];
+        double edge[] = new double[n_workers+1];
+        edge[0] = Double.NEGATIVE_INFINITY;
+        edge[n_workers] = Double.POSITIVE_INFINITY;
+        first[n_workers] = n_balls;
+        for(int k=1; k<n_workers; k++){
+            first[k] = (int)((long)k*n_balls/n_workers);
+            edge[k] = 0.5*(loc.get(1, order[Math.max(0, first[k]-1)])+loc.get(1, order[Math.min(n_balls-1, first[k])]));
+        }
+        for(int k=1; k<n_workers-1; k++){
+            if(edge[k+1]-edge[k]<2*halo){
+                throw new IllegalArgumentException("Too many workers: strip "+k+" is narrower than two ball diameters");
+            }
+        }
+
+        String boundary = sim.getBoundary().toString();
+        for(int k=0; k<n_workers; k++){
+            DataOutputStream o = out[k];
+            o.writeByte(Protocol.SETUP);
+            o.writeInt(k);
+            o.writeInt(n_workers);
+            Protocol.Write_String(o, boundary);
+            o.writeDouble(sim.getDT());
+            o.writeDouble(edge[k]);
+            o.writeDouble(edge[k+1]);
+            o.writeDouble(sim.getMaxRadius());
+            o.writeDouble(sim.getMomBoxWidth());
+            o.writeInt(sim.getMomBoxes());
+            o.writeInt(sim.getRadBoxes());
+            if(k<n_workers-1){
+                Protocol.Write_String(o, hosts[k+1]);
+                o.writeInt(ports[k+1]);
+            }
+            o.writeInt(first[k+1]-first[k]);
+            for(int p=first[k]; p<first[k+1]; p++){
+                int i = order[p];
+                Protocol.Write_Ball(o, i, loc.get(0, i), loc.get(1, i), vel.get(0, i), vel.get(1, i), radius[i], mass[i]);
+            }
+            o.flush();
+            Await(k, Protocol.SETUP);
+        }
+    }
+
+    /**
+     * Wait for a worker to reply that it has finished a command
+     * @param k index of worker
+     * @param command command sent
+     * @throws IOException if the worker replies with anything else
+     */
+    private void Await(int k, byte command) throws IOException{
+        byte reply = in[k].readByte();
+        if(reply!=command){
+            throw new IOException("Worker "+k+" replied "+reply+" to command "+command);
+        }
+    }
+
+    /**
+     * Send a command with no arguments to every worker
+     * @param command command to send
+     * @throws IOException if a worker's connection fails
+     */
+    private void Send_All(byte command) throws IOException{
+        for(int k=0; k<n_workers; k++){
+            out[k].writeByte(command);
+            out[k].flush();
+        }
+    }
+
+    /**
+     * Run the simulation for the given length of time
+     * @param nSteps number of steps to simulate
+     * @throws IOException if a worker's connection fails
+     */
+    public void Simulate(int nSteps) throws IOException{
+        for(int k=0; k<n_workers; k++){
+            out[k].writeByte(Protocol.STEP);
+            out[k].writeInt(nSteps);
+            out[k].flush();
+        }
+        for(int k=0; k<n_workers; k++){
+            Await(k, Protocol.STEP);
+        }
+    }
+
+    /**
+     * Get the distribution of the momenta of the balls, summed over all
+     * workers
+     * @return histogram of the momentum distribution
+     * @throws IOException if a worker's connection fails
+     */
+    public int[] momentumSplit() throws IOException{
+        return Histograms()[0];
+    }
+
+    /**
+     * Measure how rotational the particle velocities are, summed over all
+     * workers. 1 is entirely rotational and 0 is entirely radial
+     * @return histogram of the radial velocity distribution
+     * @throws IOException if a worker's connection fails
+     */
+    public int[] radialVelocityDist() throws IOException{
+        return Histograms()[1];
+    }
+
+    /**
+     * Gather the momentum and radial velocity histograms from every worker
+     * @return summed momentum histogram, then radial velocity histogram
+     * @throws IOException if a worker's connection fails
+     */
+    private int[][] Histograms() throws IOException{
+        int mom[] = new int[sim.getMomBoxes()], rad[] = new int[sim.getRadBoxes()];
+        Send_All(Protocol.HISTOGRAMS);
+        for(int k=0; k<n_workers; k++){
+            Protocol.Add_Histogram(in[k], mom);
+            Protocol.Add_Histogram(in[k], rad);
+            Await(k, Protocol.HISTOGRAMS);
+        }
+        return new int[][]{mom, rad};
+    }
+
+    /**
+     * Copy the current positions and velocities of all balls from the
+     * workers back into the simulation they were taken from
+     * @throws IOException if a worker's connection fails
+     */
+    public void Gather() throws IOException{
+        int n_balls = sim.getRadii().length;
+        Matrix loc = new Matrix(2, n_balls), vel = new Matrix(2, n_balls);
+        Send_All(Protocol.GATHER);
+        for(int k=0; k<n_workers; k++){
+            DataInputStream i = in[k];
+            int n = i.readInt();
+            for(int m=0; m<n; m++){
+                int id = i.readInt();
+                loc.set(0, id, i.readDouble());
+                loc.set(1, id, i.readDouble());
+                vel.set(0, id, i.readDouble());
+                vel.set(1, id, i.readDouble());
+                i.readDouble();
+                i.readDouble();
+            }
+            Await(k, Protocol.GATHER);
+        }
+        sim.Set_Locations(loc);
+        sim.Set_Velocities(vel);
+    }
+
+    /**
+     * Stop every worker and close the connections to them, waiting for any
+     * workers started by Launch_Local to exit
+     * @throws IOException if a connection cannot be closed
+     */
+    public void Close() throws IOException{
+        Send_All(Protocol.STOP);
+        for(Socket s: workers){
+            s.close();
+        }
+        for(Process p: processes){
+            try{
+                p.waitFor();
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                p.destroy();
+            }
+        }
+    }
+}
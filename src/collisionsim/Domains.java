@@ -0,0 +1,279 @@
+package collisionsim;
+
+import java.util.Arrays;
+
+/**
+ * Decomposition of the partition grid into horizontal strips of rows, each
+ * owned by one thread, which moves, bins and collides its own balls.
+ *
+ * A ball belongs to the strip holding the row of its cell. When it moves
+ * into a row owned by another strip it is migrated to that strip's list,
+ * and each strip then sorts its own balls into its own band of cells. The
+ * bands are contiguous in the partition, so every strip writes its own part
+ * of cellStart, cellEnd and cellOrder.
+ *
+ * Checking a cell touches its own row and the row above, so a strip's last
+ * row reaches into the first row of the next strip, which acts as its halo.
+ * All other rows are done first, every strip at once, then the last rows of
+ * all strips at once. Strips are at least two rows high, so no two last
+ * rows touch the same balls.
+ *
+ * The work done in each row, the number of ball pairs and wall balls it
+ * tested, is recorded as the strips run. Balance moves the strip edges so
+ * each strip does about the same work, which keeps all threads busy when
+ * the balls are spread unevenly. Work is counted rather than timed, so the
+ * edges, and so the results, depend only on the state and the number of
+ * strips.
+ *
+ * @author cjcode975
+ */
+class Domains {
+
+    //Fewest rows in a strip, so the last rows of two strips never touch
+    static final int MIN_ROWS = 2;
+
+    //Largest imbalance, as the most work in a strip over the average, left
+    //before the edges are moved
+    private static final double TOLERANCE = 1.1;
+
+    final CellList cells;
+    final int n_domains;
+
+    //Strip k owns rows rowStart[k] ... rowStart[k+1]-1, and the wall cells
+    //wallCells[wallStart[k]] ... wallCells[wallStart[k+1]-1]
+    final int rowStart[], wallStart[];
+    private final int rowOwner[];
+
+    //Balls owned by each strip, and those found to have left it
+    private int own[][], leaving[][];
+    private final int n_own[], n_leaving[];
+
+    //Work done in each row in the last step, and averaged over recent steps
+    final long rowWork[];
+    private final double rowCost[];
+
+    /**
+     * Split a partition into strips of about equal numbers of balls
+     * @param partition partition to split, which must be tall enough for
+     * two strips
+     * @param strips largest number of strips wanted
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     */
+    Domains(CellList partition, int strips, double x[], double y[]){
+        cells = partition;
+        n_domains = Math.max(1, Math.min(strips, cells.ny/MIN_ROWS));
+        rowStart = new int[n_domains+1];
+        wallStart = new int[n_domains+1];
+        rowOwner = new int[cells.ny];
+        rowWork = new long[cells.ny];
+        rowCost = new double[cells.ny];
+
+        int n_balls = x.length;
+        for(int i=0; i<n_balls; i++){
+            rowCost[cells.cellY(y[i])]++;
+        }
+        Split();
+
+        own = new int[n_domains][];
+        leaving = new int[n_domains][];
+        n_own = new int[n_domains];
+        n_leaving = new int[n_domains];
+        for(int k=0; k<n_domains; k++){
+            own[k] = new int[16];
+            leaving[k] = new int[16];
+        }
+        for(int i=0; i<n_balls; i++){
+            Add(rowOwner[cells.cellY(y[i])], i);
+        }
+    }
+
+    /**
+     * Give a ball to a strip
+     * @param k strip
+     * @param i index of ball
+     */
+    private void Add(int k, int i){
+        if(n_own[k]==own[k].length){
+            own[k] = Arrays.copyOf(own[k], 2*n_own[k]);
+        }
+        own[k][n_own[k]++] = i;
+    }
+
+    /**
+     * Move the balls owned by a strip along their velocities
+     * @param k strip
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param vx x velocities of the balls
+     * @param vy y velocities of the balls
+     * @param dt timestep
+     */
+    void Advance(int k, double x[], double y[], double vx[], double vy[], double dt){
+        int balls[] = own[k];
+        for(int p=0; p<n_own[k]; p++){
+            int i = balls[p];
+            x[i] += vx[i]*dt;
+            y[i] += vy[i]*dt;
+        }
+    }
+
+    /**
+     * Find the cell of each ball owned by a strip, and set aside those now
+     * in another strip's rows
+     * @param k strip
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     */
+    void Find_Leavers(int k, double x[], double y[]){
+        int balls[] = own[k], ballCell[] = cells.ballCell;
+        int kept = 0;
+        n_leaving[k] = 0;
+        for(int p=0; p<n_own[k]; p++){
+            int i = balls[p];
+            int cj = cells.cellY(y[i]);
+            ballCell[i] = cj*cells.nx+cells.cellX(x[i]);
+            if(rowOwner[cj]==k){
+                balls[kept++] = i;
+                continue;
+            }
+            if(n_leaving[k]==leaving[k].length){
+                leaving[k] = Arrays.copyOf(leaving[k], 2*n_leaving[k]);
+            }
+            leaving[k][n_leaving[k]++] = i;
+        }
+        n_own[k] = kept;
+    }
+
+    /**
+     * Hand every ball set aside by Find_Leavers to the strip it is now in
+     */
+    void Migrate(){
+        for(int k=0; k<n_domains; k++){
+            for(int p=0; p<n_leaving[k]; p++){
+                int i = leaving[k][p];
+                Add(rowOwner[cells.ballCell[i]/cells.nx], i);
+            }
+            n_leaving[k] = 0;
+        }
+    }
+
+    /**
+     * Get where each strip's balls start in cellOrder
+     * @return offset of each strip, with the total number of balls last
+     */
+    int[] Offsets(){
+        int offset[] = new int[n_domains+1];
+        for(int k=0; k<n_domains; k++){
+            offset[k+1] = offset[k]+n_own[k];
+        }
+        return offset;
+    }
+
+    /**
+     * Counting sort the balls owned by a strip into its band of cells,
+     * using the cells found by Find_Leavers
+     * @param k strip
+     * @param offset where the strip's balls start in cellOrder
+     */
+    void Bin(int k, int offset){
+        int cellStart[] = cells.cellStart, cellEnd[] = cells.cellEnd, cellOrder[] = cells.cellOrder, ballCell[] = cells.ballCell;
+        int first = rowStart[k]*cells.nx, last = rowStart[k+1]*cells.nx;
+
+        //Count into cellEnd, which only this strip writes in its band
+        Arrays.fill(cellEnd, first, last, 0);
+        int balls[] = own[k];
+        for(int p=0; p<n_own[k]; p++){
+            cellEnd[ballCell[balls[p]]]++;
+        }
+        for(int c=first; c<last; c++){
+            int count = cellEnd[c];
+            cellStart[c] = offset;
+            cellEnd[c] = offset;
+            offset += count;
+        }
+        if(k==n_domains-1){
+            cellStart[cells.n_cells] = offset;
+        }
+        for(int p=0; p<n_own[k]; p++){
+            int i = balls[p];
+            cellOrder[cellEnd[ballCell[i]]++] = i;
+        }
+    }
+
+    /**
+     * Move the strip edges so each strip does about the same work, judged
+     * by the work recorded in each row, averaged over recent steps. Edges
+     * are left alone unless the busiest strip is well above average
+     */
+    void Balance(){
+        double total = 0;
+        for(int j=0; j<cells.ny; j++){
+            rowCost[j] = 0.5*rowCost[j]+0.5*rowWork[j];
+            total += rowCost[j];
+        }
+        double most = 0;
+        for(int k=0; k<n_domains; k++){
+            double work = 0;
+            for(int j=rowStart[k]; j<rowStart[k+1]; j++){
+                work += rowCost[j];
+            }
+            most = Math.max(most, work);
+        }
+        if(most*n_domains>TOLERANCE*total){
+            Split();
+        }
+    }
+
+    /**
+     * Place the strip edges to split the row costs as evenly as possible,
+     * keeping every strip at least MIN_ROWS high
+     */
+    private void Split(){
+        int ny = cells.ny;
+        double total = 0;
+        for(int j=0; j<ny; j++){
+            total += rowCost[j];
+        }
+
+        //End each strip once it has its share of the cost, leaving enough
+        //rows for the strips after it
+        double sum = 0;
+        int j = 0;
+        for(int k=0; k<n_domains; k++){
+            rowStart[k] = j;
+            int last = ny-MIN_ROWS*(n_domains-1-k);
+            int end = Math.min(j+MIN_ROWS, last);
+            for(int m=j; m<end; m++){
+                sum += rowCost[m];
+            }
+            while(end<last && sum+rowCost[end]/2<=total*(k+1)/n_domains){
+                sum += rowCost[end++];
+            }
+            j = k==n_domains-1 ? ny : end;
+        }
+        rowStart[n_domains] = ny;
+
+        for(int k=0; k<n_domains; k++){
+            Arrays.fill(rowOwner, rowStart[k], rowStart[k+1], k);
+        }
+        Wall_Ranges();
+    }
+
+    /**
+     * Find the range of the partition's wall cells in each strip, which 
+     * must be done again whenever the partition is classified again
+     */
+    void Wall_Ranges(){
+        //Wall cells are in increasing order, so each strip has a range
+        int wallCells[] = cells.wallCells;
+        int w = 0;
+        for(int k=0; k<n_domains; k++){
+            wallStart[k] = w;
+            while(w<wallCells.length && wallCells[w]<rowStart[k+1]*cells.nx){
+                w++;
+            }
+        }
+        wallStart[n_domains] = wallCells.length;
+    }
+}
@@ -0,0 +1,247 @@
+package collisionsim;
+
+import Boundaries.Boundary;
+import Boundaries.Contact;
+import Physics.Formulae;
+import Physics.Vec2;
+import java.util.PriorityQueue;
+
+/**
+ * Exact event driven integrator for the balls of a BallSim. Rather than
+ * stepping by a fixed dt and repairing overlaps, the time of every future
+ * ball-ball and ball-wall contact is predicted and held in a priority queue,
+ * and the simulation jumps straight from one contact to the next.
+ *
+ * Each ball carries a count of the collisions it has taken part in. An event
+ * records the counts of its balls when it was predicted, so events made stale
+ * by an earlier collision are recognised and dropped when they reach the
+ * front of the queue. Ball positions are updated lazily: x[i],y[i] hold the
+ * position at time t_ball[i], and a ball is only moved when it takes part in
+ * an event or when the state is synchronised at the end of Advance.
+ *
+ * Works directly on the state arrays of the owning BallSim, which must not be
+ * changed by anything else while the engine is in use.
+ *
+ * @author cjcode975
+ */
+class EventEngine {
+
+    /**
+     * A predicted contact, either between balls i and j or, when j is -1,
+     * between ball i and the wall
+     */
+    private static final class Event implements Comparable<Event>{
+        final double t;
+        final int i, j;
+        final int count_i, count_j;
+
+        Event(double time, int ball_i, int ball_j, int c_i, int c_j){
+            t = time;
+            i = ball_i;
+            j = ball_j;
+            count_i = c_i;
+            count_j = c_j;
+        }
+
+        @Override
+        public int compareTo(Event e) {
+            return Double.compare(t, e.t);
+        }
+    }
+
+    private final int n_balls;
+    private final double x[], y[], vx[], vy[], radius[], mass[];
+    private final Boundary bounds;
+
+    //Time at which the stored position of each ball is valid
+    private final double t_ball[];
+    //Number of collisions each ball has taken part in
+    private final int count[];
+
+    //Distance past a wall contact at which the wall is identified
+    private static final double CONTACT_TOL = 1e-9;
+
+    private final PriorityQueue<Event> queue = new PriorityQueue<Event>();
+    private final Contact contact = new Contact();
+
+    private double time = 0;
+
+    /**
+     * Set up the engine on a consistent simulation state and predict the
+     * first contact of every ball
+     * @param X x positions
+     * @param Y y positions
+     * @param VX x velocities
+     * @param VY y velocities
+     * @param Radius radii
+     * @param Mass masses
+     * @param boundary boundary of the billiard
+     */
+    EventEngine(double X[], double Y[], double VX[], double VY[], double Radius[], double Mass[], Boundary boundary){
+        n_balls = X.length;
+        x = X;
+        y = Y;
+        vx = VX;
+        vy = VY;
+        radius = Radius;
+        mass = Mass;
+        bounds = boundary;
+
+        t_ball = new double[n_balls];
+        count = new int[n_balls];
+
+        for(int i=0; i<n_balls; i++){
+            predictWall(i);
+            for(int j=i+1; j<n_balls; j++){
+                predictPair(i, j);
+            }
+        }
+    }
+
+    /**
+     * Check if the engine is working on the given state arrays, i.e. that
+     * none of them have been replaced since it was created
+     * @return if all arrays are the ones the engine was created with
+     */
+    boolean Uses(double X[], double Y[], double VX[], double VY[], double Radius[], double Mass[]){
+        return x==X && y==Y && vx==VX && vy==VY && radius==Radius && mass==Mass;
+    }
+
+    /**
+     * Get the current simulation time, measured from creation of the engine
+     * @return time
+     */
+    double getTime(){
+        return time;
+    }
+
+    /**
+     * Process all contacts up to a given length of time ahead, then bring
+     * every ball's position up to the new time
+     * @param duration length of time to simulate
+     */
+    void Advance(double duration){
+        double t_end = time+duration;
+
+        while(!queue.isEmpty() && queue.peek().t<=t_end){
+            Event e = queue.poll();
+            if(count[e.i]!=e.count_i || (e.j>=0 && count[e.j]!=e.count_j)){
+                continue; //invalidated by an earlier collision
+            }
+
+            time = e.t;
+            if(e.j<0){
+                bounceWall(e.i);
+                predict(e.i);
+            }
+            else{
+                collide(e.i, e.j);
+                predict(e.i);
+                predict(e.j);
+            }
+        }
+
+        time = t_end;
+        for(int i=0; i<n_balls; i++){
+            move(i);
+        }
+    }
+
+    /**
+     * Bring the position of ball i up to the current time
+     * @param i index of ball
+     */
+    private void move(int i){
+        double dt = time-t_ball[i];
+        x[i] += vx[i]*dt;
+        y[i] += vy[i]*dt;
+        t_ball[i] = time;
+    }
+
+    /**
+     * Predict all future contacts of ball i, which must be up to date
+     * @param i index of ball
+     */
+    private void predict(int i){
+        predictWall(i);
+        for(int j=0; j<n_balls; j++){
+            if(j!=i){
+                predictPair(i, j);
+            }
+        }
+    }
+
+    /**
+     * Predict when ball i next hits the wall and queue the event
+     * @param i index of ball
+     */
+    private void predictWall(int i){
+        double dt = bounds.Next_Hit_Time(x[i], y[i], vx[i], vy[i], radius[i], contact);
+        if(dt<Double.POSITIVE_INFINITY){
+            queue.add(new Event(t_ball[i]+dt, i, -1, count[i], 0));
+        }
+    }
+
+    /**
+     * Predict when balls i and j next touch and queue the event. Ball i must
+     * be up to date, ball j is extrapolated to the current time without being
+     * moved
+     * @param i index of first ball
+     * @param j index of second ball
+     */
+    private void predictPair(int i, int j){
+        double dtj = time-t_ball[j];
+        double dt = Formulae.whenCirclesWillIntersect(x[i]-(x[j]+vx[j]*dtj), y[i]-(y[j]+vy[j]*dtj),
+                vx[i]-vx[j], vy[i]-vy[j], radius[i], radius[j]);
+        if(dt<Double.POSITIVE_INFINITY){
+            queue.add(new Event(time+dt, i, j, count[i], count[j]));
+        }
+    }
+
+    /**
+     * Reflect ball i off the wall it is touching
+     * @param i index of ball
+     */
+    private void bounceWall(int i){
+        move(i);
+        //Look just past the contact so rounding in the position can't leave
+        //the ball just short of the wall
+        double nudge = CONTACT_TOL/Vec2.magnitude(vx[i], vy[i]);
+        if(!bounds.Contact(x[i]+vx[i]*nudge, y[i]+vy[i]*nudge, vx[i], vy[i], radius[i], contact)){
+            count[i]++;
+            return;
+        }
+        Vec2 normal = contact.normal;
+        double vn = vx[i]*normal.x+vy[i]*normal.y;
+        //Only reflect if heading into the wall
+        if(vn<0){
+            vx[i] -= 2*vn*normal.x;
+            vy[i] -= 2*vn*normal.y;
+        }
+        count[i]++;
+    }
+
+    /**
+     * Update the velocities of two touching balls according to an elastic
+     * collision
+     * @param i index of first ball
+     * @param j index of second ball
+     */
+    private void collide(int i, int j){
+        move(i);
+        move(j);
+
+        double xdiff_x = x[i]-x[j], xdiff_y = y[i]-y[j];
+        double vdiff_x = vx[i]-vx[j], vdiff_y = vy[i]-vy[j];
+
+        double inc = 2*(vdiff_x*xdiff_x+vdiff_y*xdiff_y)/((mass[i]+mass[j])*(xdiff_x*xdiff_x+xdiff_y*xdiff_y));
+
+        vx[i] -= inc*mass[j]*xdiff_x;
+        vy[i] -= inc*mass[j]*xdiff_y;
+        vx[j] += inc*mass[i]*xdiff_x;
+        vy[j] += inc*mass[i]*xdiff_y;
+
+        count[i]++;
+        count[j]++;
+    }
+}
@@ -0,0 +1,139 @@
+package collisionsim;
+
+/**
+ * Positions and velocities of the balls of a BallSim held in single
+ * precision, taking 20 bytes a ball against 32 for the double state, and 
+ * half the memory traffic to step.
+ *
+ * A float only keeps about seven significant figures, too few for positions
+ * far from the origin of a large billiard. Each position is instead held as
+ * the column and row of a home cell of the partition, plus a float offset
+ * from the corner of that cell, so the offsets are never much bigger than a
+ * cell and keep their precision anywhere in the billiard. Rebin moves each
+ * ball's home to the cell it is now in, which also keeps the partition up to
+ * date. Separations of nearby balls are worked out from the cell numbers
+ * and offsets in double precision, and results of the collision arithmetic
+ * are rounded back to float.
+ *
+ * Cell columns and rows are held as unsigned 16 bit numbers, so the
+ * partition can be at most 65536 cells wide and high.
+ *
+ * @author cjcode975
+ */
+class FloatState extends StateStore {
+
+    private final int n_balls;
+
+    //Home cell of each ball, and offset of each ball from its corner
+    private final char col[], row[];
+    private final float ox[], oy[];
+
+    private final float vx[], vy[];
+
+    /**
+     * Round a double precision state into single precision
+     * @param partition partition whose cells are used as the home cells, and
+     * which is kept up to date by Rebin
+     * @param x x positions
+     * @param y y positions
+     * @param VX x velocities
+     * @param VY y velocities
+     */
+    FloatState(CellList partition, double x[], double y[], double VX[], double VY[]){
+        super(partition);
+        if(cells.nx>0x10000 || cells.ny>0x10000){
+            throw new IllegalArgumentException("Partition of "+cells.nx+" x "+cells.ny+" cells is too large for single precision");
+        }
+        n_balls = x.length;
+        col = new char[n_balls];
+        row = new char[n_balls];
+        ox = new float[n_balls];
+        oy = new float[n_balls];
+        vx = new float[n_balls];
+        vy = new float[n_balls];
+        for(int i=0; i<n_balls; i++){
+            Home(i, x[i], y[i]);
+            vx[i] = (float)VX[i];
+            vy[i] = (float)VY[i];
+        }
+    }
+
+    /**
+     * Make the cell containing a position the home cell of a ball, and set
+     * the ball's offset from it
+     * @param i index of ball
+     * @param x x position
+     * @param y y position
+     */
+    private void Home(int i, double x, double y){
+        int ci = cells.cellX(x), cj = cells.cellY(y);
+        col[i] = (char)ci;
+        row[i] = (char)cj;
+        ox[i] = (float)(x-cells.corner_x-ci*cells.width);
+        oy[i] = (float)(y-cells.corner_y-cj*cells.width);
+        cells.ballCell[i] = cj*cells.nx+ci;
+    }
+
+    @Override
+    double X(int i){
+        return cells.corner_x+col[i]*cells.width+ox[i];
+    }
+
+    @Override
+    double Y(int i){
+        return cells.corner_y+row[i]*cells.width+oy[i];
+    }
+
+    @Override
+    double VX(int i){
+        return vx[i];
+    }
+
+    @Override
+    double VY(int i){
+        return vy[i];
+    }
+
+    @Override
+    void Advance(double dt){
+        float step = (float)dt;
+        for(int i=0; i<n_balls; i++){
+            ox[i] += vx[i]*step;
+            oy[i] += vy[i]*step;
+        }
+    }
+
+    /**
+     * Move every ball which has left its home cell to the cell it is now in,
+     * then sort the balls into the partition by their home cells
+     */
+    @Override
+    void Rebin(){
+        float width = (float)cells.width;
+        for(int i=0; i<n_balls; i++){
+            if(ox[i]>=0 && ox[i]<width && oy[i]>=0 && oy[i]<width){
+                continue;
+            }
+            Home(i, X(i), Y(i));
+        }
+        cells.Sort(0);
+    }
+
+    @Override
+    double Dx(int i, int j){
+        return (col[i]-col[j])*cells.width+((double)ox[i]-ox[j]);
+    }
+
+    @Override
+    double Dy(int i, int j){
+        return (row[i]-row[j])*cells.width+((double)oy[i]-oy[j]);
+    }
+
+    @Override
+    void Set(int i, double x, double y, double VX, double VY){
+        ox[i] = (float)(x-cells.corner_x-col[i]*cells.width);
+        oy[i] = (float)(y-cells.corner_y-row[i]*cells.width);
+        vx[i] = (float)VX;
+        vy[i] = (float)VY;
+    }
+}
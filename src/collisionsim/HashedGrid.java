@@ -0,0 +1,131 @@
+package collisionsim;
+
+/**
+ * Sparse grid partition for billiards much larger than the region the balls
+ * occupy. Cells have the same size as in CellList, but only the cells that
+ * hold a ball are stored, found through an open addressed hash table keyed
+ * on the cell coordinates. Memory and the cost of a rebuild depend on the
+ * number of balls rather than the area of the billiard, and the grid is not
+ * bounded, so no bounding box is needed.
+ *
+ * Occupied cells are numbered in the order they are first seen. Occupied
+ * cell c has coordinates (cellI[c], cellJ[c]) and holds the balls
+ * order[cellStart[c]] ... order[cellStart[c+1]-1].
+ *
+ * @author cjcode975
+ */
+class HashedGrid {
+
+    private final int n_balls;
+    final double width;
+
+    //Hash table: packed cell coordinates, and the occupied cell stored there.
+    //A slot is only in use if its stamp matches the current build, which
+    //saves clearing the table every step
+    private final int mask;
+    private final long keys[];
+    private final int slotCell[], stamp[];
+    private int current = 0;
+
+    int n_cells = 0;
+    final int cellI[], cellJ[], cellStart[], order[];
+    private final int ballCell[], cellFill[];
+
+    /**
+     * Create an empty grid
+     * @param N_Balls number of balls to be sorted into the grid
+     * @param cell_width width of each (square) cell, at least the largest
+     * ball diameter
+     */
+    HashedGrid(int N_Balls, double cell_width){
+        n_balls = N_Balls;
+        width = cell_width;
+
+        //Keep the table at most half full
+        int capacity = Integer.highestOneBit(Math.max(2*n_balls, 8)-1)<<1;
+        mask = capacity-1;
+        keys = new long[capacity];
+        slotCell = new int[capacity];
+        stamp = new int[capacity];
+
+        cellI = new int[n_balls];
+        cellJ = new int[n_balls];
+        cellStart = new int[n_balls+1];
+        cellFill = new int[n_balls];
+        order = new int[n_balls];
+        ballCell = new int[n_balls];
+    }
+
+    /**
+     * Sort all balls into their cells
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     */
+    void Build(double x[], double y[]){
+        current++;
+        n_cells = 0;
+
+        for(int i=0; i<n_balls; i++){
+            int ci = (int)Math.floor(x[i]/width), cj = (int)Math.floor(y[i]/width);
+            int slot = Slot(ci, cj);
+            if(stamp[slot]!=current){
+                stamp[slot] = current;
+                keys[slot] = Key(ci, cj);
+                slotCell[slot] = n_cells;
+                cellI[n_cells] = ci;
+                cellJ[n_cells] = cj;
+                cellStart[n_cells+1] = 0;
+                n_cells++;
+            }
+            ballCell[i] = slotCell[slot];
+            cellStart[ballCell[i]+1]++;
+        }
+
+        cellStart[0] = 0;
+        for(int c=0; c<n_cells; c++){
+            cellStart[c+1] += cellStart[c];
+        }
+        System.arraycopy(cellStart, 0, cellFill, 0, n_cells);
+        for(int i=0; i<n_balls; i++){
+            order[cellFill[ballCell[i]]++] = i;
+        }
+    }
+
+    /**
+     * Find the occupied cell with given coordinates
+     * @param ci column of cell
+     * @param cj row of cell
+     * @return index of the cell, or -1 if it holds no balls
+     */
+    int Find(int ci, int cj){
+        int slot = Slot(ci, cj);
+        return stamp[slot]==current ? slotCell[slot] : -1;
+    }
+
+    /**
+     * Find the slot of the hash table holding a cell, or the empty slot where
+     * it would go
+     * @param ci column of cell
+     * @param cj row of cell
+     * @return slot index
+     */
+    private int Slot(int ci, int cj){
+        long key = Key(ci, cj);
+        long h = key*0x9E3779B97F4A7C15L;
+        int slot = (int)(h>>>32)&mask;
+        while(stamp[slot]==current && keys[slot]!=key){
+            slot = (slot+1)&mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Pack cell coordinates into a single hash key
+     * @param ci column of cell
+     * @param cj row of cell
+     * @return key
+     */
+    private static long Key(int ci, int cj){
+        return ((long)ci<<32)|(cj&0xFFFFFFFFL);
+    }
+}
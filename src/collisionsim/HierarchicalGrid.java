@@ -0,0 +1,231 @@
+package collisionsim;
+
+import java.util.Arrays;
+
+/**
+ * Multi-level grid partition for balls with widely differing radii. Level 0
+ * has cells sized to the smallest ball and each level above has cells twice
+ * as wide. Every ball is binned at the lowest level whose cells are wide
+ * enough for it, so small balls share small cells with each other rather
+ * than filling up cells sized for the largest ball.
+ *
+ * Balls at the same level are paired using the half-shell stencil, as in
+ * CellList. A ball is also paired with the 3x3 block of cells around it at
+ * every coarser level. Balls at a coarser level are always larger, so a
+ * ball can only touch coarser balls within that block, and each pair across
+ * levels is found exactly once, from its smaller ball.
+ *
+ * All levels share one counting sorted order: the balls in cell c of level l
+ * are order[cellStart[offset[l]+c]] ... order[cellStart[offset[l]+c+1]-1].
+ * The candidate pairs from the last Build are pairA[k], pairB[k] for
+ * k < n_pairs.
+ *
+ * @author cjcode975
+ */
+class HierarchicalGrid {
+
+    private final int n_balls, n_levels;
+    private final double corner_x, corner_y;
+
+    //Cell width, grid size and first global cell index of each level
+    private final double width[];
+    private final int nx[], ny[], offset[];
+
+    //Level of each ball, and whether each level holds any balls
+    private final int ballLevel[];
+    private final boolean occupied[];
+
+    private final int cellStart[], cellFill[], ballCell[], order[];
+
+    int n_pairs = 0;
+    int pairA[] = new int[16], pairB[] = new int[16];
+
+    /**
+     * Set up the levels for a set of ball radii
+     * @param bounding_box x_min, x_max, y_min, y_max of the billiard
+     * @param radius radii of the balls
+     */
+    HierarchicalGrid(double bounding_box[], double radius[]){
+        n_balls = radius.length;
+
+        double min_radius = radius[0], max_radius = radius[0];
+        for(int i=1; i<n_balls; i++){
+            min_radius = Math.min(min_radius, radius[i]);
+            max_radius = Math.max(max_radius, radius[i]);
+        }
+
+        corner_x = bounding_box[0]-1;
+        corner_y = bounding_box[2]-1;
+        double extent_x = bounding_box[1]+1-corner_x, extent_y = bounding_box[3]+1-corner_y;
+
+        //Cells fit the smallest ball, but are not made so small that there
+        //are more than a couple of cells per ball to clear every step
+        double base = Math.max(2.25*min_radius, Math.sqrt(extent_x*extent_y/(2.0*n_balls)));
+
+        //Enough levels that the top one fits the largest ball
+        n_levels = 1+Math.max(0, (int)Math.ceil(Math.log(2.25*max_radius/base)/Math.log(2)));
+
+        width = new double[n_levels];
+        nx = new int[n_levels];
+        ny = new int[n_levels];
+        offset = new int[n_levels+1];
+        for(int l=0; l<n_levels; l++){
+            width[l] = base*(1<<l);
+            nx[l] = (int)Math.ceil(extent_x/width[l]);
+            ny[l] = (int)Math.ceil(extent_y/width[l]);
+            offset[l+1] = offset[l]+nx[l]*ny[l];
+        }
+
+        ballLevel = new int[n_balls];
+        occupied = new boolean[n_levels];
+        for(int i=0; i<n_balls; i++){
+            int l = 0;
+            while(l<n_levels-1 && width[l]<2.25*radius[i]){
+                l++;
+            }
+            ballLevel[i] = l;
+            occupied[l] = true;
+        }
+
+        cellStart = new int[offset[n_levels]+1];
+        cellFill = new int[offset[n_levels]];
+        ballCell = new int[n_balls];
+        order = new int[n_balls];
+    }
+
+    /**
+     * Get the x index of the column of cells containing a position at a
+     * level, clamped to the grid
+     * @param l level
+     * @param x x position
+     * @return column index
+     */
+    private int cellX(int l, double x){
+        int i = (int)((x-corner_x)/width[l]);
+        return i<0 ? 0 : (i>=nx[l] ? nx[l]-1 : i);
+    }
+
+    /**
+     * Get the y index of the row of cells containing a position at a level,
+     * clamped to the grid
+     * @param l level
+     * @param y y position
+     * @return row index
+     */
+    private int cellY(int l, double y){
+        int j = (int)((y-corner_y)/width[l]);
+        return j<0 ? 0 : (j>=ny[l] ? ny[l]-1 : j);
+    }
+
+    /**
+     * Sort the balls into their cells and collect every pair of balls in
+     * neighbouring cells whose bounding squares overlap
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param radius radii of the balls
+     */
+    void Build(double x[], double y[], double radius[]){
+        //Counting sort by global cell index
+        Arrays.fill(cellStart, 0);
+        for(int i=0; i<n_balls; i++){
+            int l = ballLevel[i];
+            int c = offset[l]+cellY(l, y[i])*nx[l]+cellX(l, x[i]);
+            ballCell[i] = c;
+            cellStart[c+1]++;
+        }
+        for(int c=0; c<offset[n_levels]; c++){
+            cellStart[c+1] += cellStart[c];
+        }
+        System.arraycopy(cellStart, 0, cellFill, 0, offset[n_levels]);
+        for(int i=0; i<n_balls; i++){
+            order[cellFill[ballCell[i]]++] = i;
+        }
+
+        n_pairs = 0;
+        for(int l=0; l<n_levels; l++){
+            if(occupied[l]){
+                PairLevel(l, x, y, radius);
+            }
+        }
+    }
+
+    /**
+     * Collect the pairs found from the balls of one level: those with other
+     * balls at the same level and with balls at coarser levels
+     * @param l level
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param radius radii of the balls
+     */
+    private void PairLevel(int l, double x[], double y[], double radius[]){
+        //Walk the level's balls in cell order, so empty cells cost nothing
+        for(int p=cellStart[offset[l]]; p<cellStart[offset[l+1]]; p++){
+            int a = order[p];
+            int c = ballCell[a];
+            int i = (c-offset[l])%nx[l], j = (c-offset[l])/nx[l];
+
+            for(int q=p+1; q<cellStart[c+1]; q++){
+                Test(a, order[q], x, y, radius);
+            }
+            for(int s[]: CellList.HALF_SHELL){
+                int m = i+s[0], n = j+s[1];
+                if(m<0 || m>=nx[l] || n>=ny[l]){
+                    continue;
+                }
+                int d = offset[l]+n*nx[l]+m;
+                for(int q=cellStart[d]; q<cellStart[d+1]; q++){
+                    Test(a, order[q], x, y, radius);
+                }
+            }
+
+            for(int k=l+1; k<n_levels; k++){
+                if(occupied[k]){
+                    PairCoarser(a, k, x, y, radius);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect the pairs between a ball and the balls of a coarser level in
+     * the 3x3 block of cells around it
+     * @param a index of ball
+     * @param k coarser level
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param radius radii of the balls
+     */
+    private void PairCoarser(int a, int k, double x[], double y[], double radius[]){
+        int ci = cellX(k, x[a]), cj = cellY(k, y[a]);
+        for(int n=Math.max(0, cj-1); n<=Math.min(ny[k]-1, cj+1); n++){
+            int row = offset[k]+n*nx[k];
+            for(int d=row+Math.max(0, ci-1); d<=row+Math.min(nx[k]-1, ci+1); d++){
+                for(int q=cellStart[d]; q<cellStart[d+1]; q++){
+                    Test(a, order[q], x, y, radius);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a pair of balls if their bounding squares overlap
+     * @param i index of first ball
+     * @param j index of second ball
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param radius radii of the balls
+     */
+    private void Test(int i, int j, double x[], double y[], double radius[]){
+        double rsum = radius[i]+radius[j];
+        if(Math.abs(x[i]-x[j])>rsum || Math.abs(y[i]-y[j])>rsum){
+            return;
+        }
+        if(n_pairs==pairA.length){
+            pairA = Arrays.copyOf(pairA, 2*n_pairs);
+            pairB = Arrays.copyOf(pairB, 2*n_pairs);
+        }
+        pairA[n_pairs] = i;
+        pairB[n_pairs] = j;
+        n_pairs++;
+    }
+}
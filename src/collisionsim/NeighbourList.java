@@ -0,0 +1,188 @@
+package collisionsim;
+
+import java.util.Arrays;
+
+/**
+ * Verlet neighbour lists for ball-to-ball collision detection. For every ball
+ * the list holds the higher numbered balls whose edges were within a skin
+ * distance of it when the list was built, i.e. closer than r_i+r_j+skin. The
+ * same list is then reused every step until some ball has moved more than
+ * half the skin since the build, as until then no pair outside the list can
+ * have come into contact.
+ *
+ * The neighbours of ball i are nbrList[nbrStart[i]] ... nbrList[nbrStart[i+1]-1].
+ *
+ * @author cjcode975
+ */
+class NeighbourList {
+
+    private final int n_balls;
+    private final double skin;
+
+    int nbrStart[], nbrList[] = new int[0];
+
+    //Ball positions when the list was last built
+    private final double x0[], y0[];
+    private boolean built = false;
+
+    //Cells searched around each cell when building
+    private int stencil[][] = CellList.HALF_SHELL;
+
+    //Candidate pairs gathered while building, before sorting by ball
+    private int pairA[] = new int[16], pairB[] = new int[16];
+
+    /**
+     * Create an empty neighbour list
+     * @param N_Balls number of balls
+     * @param Skin extra distance beyond touching within which balls are
+     * counted as neighbours
+     */
+    NeighbourList(int N_Balls, double Skin){
+        n_balls = N_Balls;
+        skin = Skin;
+        nbrStart = new int[n_balls+1];
+        x0 = new double[n_balls];
+        y0 = new double[n_balls];
+    }
+
+    /**
+     * Get the skin distance of the lists
+     * @return skin
+     */
+    double getSkin(){
+        return skin;
+    }
+
+    /**
+     * Force the lists to be rebuilt before they are next used
+     */
+    void Invalidate(){
+        built = false;
+    }
+
+    /**
+     * Check if the lists need rebuilding, which is when they have never been
+     * built or a ball has moved more than half the skin since they were
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @return if a rebuild is needed
+     */
+    boolean Stale(double x[], double y[]){
+        if(!built){
+            return true;
+        }
+        double limit = 0.25*skin*skin;
+        for(int i=0; i<n_balls; i++){
+            double dx = x[i]-x0[i], dy = y[i]-y0[i];
+            if(dx*dx+dy*dy>limit){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rebuild the lists from a grid the balls have just been sorted into. The
+     * grid cells need not be wider than r_i+r_j+skin, as the search reaches
+     * as many cells out as needed
+     * @param grid grid holding the current ball positions
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param radius radii of the balls
+     * @param max_radius largest ball radius
+     */
+    void Build(CellList grid, double x[], double y[], double radius[], double max_radius){
+        int rings = (int)Math.ceil((2*max_radius+skin)/grid.width);
+        if(stencil.length!=rings*(2*rings+2)){
+            stencil = CellList.Half_Stencil(rings);
+        }
+
+        int nx = grid.nx, ny = grid.ny;
+        int cellStart[] = grid.cellStart, cellEnd[] = grid.cellEnd, cellOrder[] = grid.cellOrder;
+        int n_pairs = 0;
+
+        for(int j=0; j<ny; j++){
+            for(int i=0; i<nx; i++){
+                int c = j*nx+i;
+                for(int p=cellStart[c]; p<cellEnd[c]; p++){
+                    int ball_p = cellOrder[p];
+
+                    for(int q=p+1; q<cellEnd[c]; q++){
+                        if(Near(ball_p, cellOrder[q], x, y, radius)){
+                            n_pairs = AddPair(n_pairs, ball_p, cellOrder[q]);
+                        }
+                    }
+
+                    for(int s[]: stencil){
+                        int m = i+s[0], n = j+s[1];
+                        if(m<0 || m>=nx || n>=ny){
+                            continue;
+                        }
+                        int d = n*nx+m;
+                        for(int q=cellStart[d]; q<cellEnd[d]; q++){
+                            if(Near(ball_p, cellOrder[q], x, y, radius)){
+                                n_pairs = AddPair(n_pairs, ball_p, cellOrder[q]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        //Counting sort the pairs by their lower numbered ball
+        Arrays.fill(nbrStart, 0);
+        for(int k=0; k<n_pairs; k++){
+            nbrStart[pairA[k]+1]++;
+        }
+        for(int i=0; i<n_balls; i++){
+            nbrStart[i+1] += nbrStart[i];
+        }
+        if(nbrList.length<n_pairs){
+            nbrList = new int[pairA.length];
+        }
+        for(int k=0; k<n_pairs; k++){
+            nbrList[nbrStart[pairA[k]]++] = pairB[k];
+        }
+        //Placing the pairs advanced each start to the next ball's start
+        for(int i=n_balls; i>0; i--){
+            nbrStart[i] = nbrStart[i-1];
+        }
+        nbrStart[0] = 0;
+
+        System.arraycopy(x, 0, x0, 0, n_balls);
+        System.arraycopy(y, 0, y0, 0, n_balls);
+        built = true;
+    }
+
+    /**
+     * Check if two balls are within the skin distance of touching
+     * @param i index of first ball
+     * @param j index of second ball
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param radius radii of the balls
+     * @return if the balls are neighbours
+     */
+    private boolean Near(int i, int j, double x[], double y[], double radius[]){
+        double dx = x[i]-x[j], dy = y[i]-y[j];
+        double cutoff = radius[i]+radius[j]+skin;
+        return dx*dx+dy*dy < cutoff*cutoff;
+    }
+
+    /**
+     * Record a candidate pair, ordered so the lower numbered ball comes first
+     * @param n_pairs number of pairs recorded so far
+     * @param i index of first ball
+     * @param j index of second ball
+     * @return new number of pairs
+     */
+    private int AddPair(int n_pairs, int i, int j){
+        if(n_pairs==pairA.length){
+            pairA = Arrays.copyOf(pairA, 2*n_pairs);
+            pairB = Arrays.copyOf(pairB, 2*n_pairs);
+        }
+        pairA[n_pairs] = Math.min(i, j);
+        pairB[n_pairs] = Math.max(i, j);
+        return n_pairs+1;
+    }
+}
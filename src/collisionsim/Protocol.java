@@ -0,0 +1,100 @@
+package collisionsim;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary messages passed between a DistributedSim driver and its
+ * RegionWorkers, and between neighbouring workers.
+ *
+ * The driver sends a command byte, followed by any arguments, and the
+ * worker replies once the command is done. Neighbouring workers exchange
+ * one batch each per step: the number of balls crossing into the other's
+ * region and the number of halo balls near the shared edge, then a record
+ * for each of these balls. A record is the original ball number followed
+ * by the position, velocity, radius and mass, 52 bytes in all.
+ *
+ * @author cjcode975
+ */
+final class Protocol {
+
+    //Commands from the driver
+    static final byte SETUP = 1, STEP = 2, HISTOGRAMS = 3, GATHER = 4, STOP = 5;
+
+    private Protocol(){
+    }
+
+    /**
+     * Write the record of one ball
+     * @param out stream to write to
+     * @param id original number of the ball
+     * @param x x position
+     * @param y y position
+     * @param vx x velocity
+     * @param vy y velocity
+     * @param radius radius
+     * @param mass mass
+     * @throws IOException if the stream fails
+     */
+    static void Write_Ball(DataOutputStream out, int id, double x, double y, double vx, double vy, double radius, double mass) throws IOException{
+        out.writeInt(id);
+        out.writeDouble(x);
+        out.writeDouble(y);
+        out.writeDouble(vx);
+        out.writeDouble(vy);
+        out.writeDouble(radius);
+        out.writeDouble(mass);
+    }
+
+    /**
+     * Write a string of any length as UTF-8
+     * @param out stream to write to
+     * @param s string to write
+     * @throws IOException if the stream fails
+     */
+    static void Write_String(DataOutputStream out, String s) throws IOException{
+        byte bytes[] = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by Write_String
+     * @param in stream to read from
+     * @return string read
+     * @throws IOException if the stream fails
+     */
+    static String Read_String(DataInputStream in) throws IOException{
+        byte bytes[] = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a histogram
+     * @param out stream to write to
+     * @param hist counts in each box
+     * @throws IOException if the stream fails
+     */
+    static void Write_Histogram(DataOutputStream out, int hist[]) throws IOException{
+        out.writeInt(hist.length);
+        for(int count: hist){
+            out.writeInt(count);
+        }
+    }
+
+    /**
+     * Read a histogram written by Write_Histogram and add it to a total
+     * @param in stream to read from
+     * @param total counts in each box to add to
+     * @throws IOException if the stream fails
+     */
+    static void Add_Histogram(DataInputStream in, int total[]) throws IOException{
+        int n = in.readInt();
+        for(int k=0; k<n; k++){
+            total[k] += in.readInt();
+        }
+    }
+}
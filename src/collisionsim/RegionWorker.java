@@ -0,0 +1,672 @@
+package collisionsim;
+
+import Boundaries.Boundary;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * One process of a DistributedSim, which owns the balls in a horizontal
+ * strip lo <= y < hi of the billiard and steps them with the GRID method.
+ *
+ * The worker listens on a port given on the command line. The first
+ * connection is the driver, which then sends the strip, the settings and
+ * the balls in it, along with where the worker for the strip above is
+ * listening. The worker connects up to that worker and takes the
+ * connection from the one below before replying.
+ *
+ * Each step the worker moves its own balls, then sends each neighbour in one
+ * batch the balls which have crossed into its strip, and a copy of the balls
+ * within a halo of the shared edge. Halo copies take part in collisions with
+ * the worker's own balls but are dropped at the end of the step. Pairs
+ * crossing an edge are resolved first, by the workers on both sides of it,
+ * in the same order and from the same state, so both get the same result and
+ * each keeps it for its own ball. The lower worker of each pair writes
+ * first, so the exchange can never deadlock.
+ *
+ * @author cjcode975
+ */
+public class RegionWorker {
+
+    private final DataInputStream driverIn;
+    private final DataOutputStream driverOut;
+
+    //Links to the workers for the strips below and above, null at the ends
+    private DataInputStream downIn, upIn;
+    private DataOutputStream downOut, upOut;
+    private Socket down, up;
+
+    private Boundary bounds;
+    private double dt, lo, hi, halo;
+    private double momDistBoxWidth;
+    private int nMomBoxes, nRadBoxes;
+
+    private CellList cells;
+    private Balls balls;
+    private final Batch migrateDown = new Batch(), migrateUp = new Batch();
+    private final Batch ghostDown = new Batch(), ghostUp = new Batch();
+    private final Batch ghostsFromDown = new Batch(), ghostsFromUp = new Batch();
+
+    //Ghosts from above start at firstUpGhost. Overlapping pairs crossing an
+    //edge, as the index of the ball from the lower strip, then the upper
+    private int firstUpGhost;
+    private long crossPairs[] = new long[16];
+    private int n_cross;
+
+    /**
+     * Start a worker listening on a port, and serve one driver until it
+     * sends STOP
+     * @param args port to listen on
+     * @throws IOException if a connection fails
+     */
+    public static void main(String[] args) throws IOException {
+        try(ServerSocket server = new ServerSocket(Integer.parseInt(args[0]))){
+            new RegionWorker(server).Serve(server);
+        }
+    }
+
+    /**
+     * Accept the driver's connection
+     * @param server socket to listen on
+     * @throws IOException if the connection fails
+     */
+    private RegionWorker(ServerSocket server) throws IOException{
+        Socket driver = server.accept();
+        driver.setTcpNoDelay(true);
+        driverIn = new DataInputStream(new BufferedInputStream(driver.getInputStream()));
+        driverOut = new DataOutputStream(new BufferedOutputStream(driver.getOutputStream()));
+    }
+
+    /**
+     * Carry out commands from the driver until it sends STOP
+     * @param server socket to take the connection from below on
+     * @throws IOException if a connection fails
+     */
+    private void Serve(ServerSocket server) throws IOException{
+        while(true){
+            byte command = driverIn.readByte();
+            switch(command){
+                case Protocol.SETUP:
+                    Setup(server);
+                    break;
+                case Protocol.STEP:
+                    int nSteps = driverIn.readInt();
+                    for(int s=0; s<nSteps; s++){
+                        Step();
+                    }
+                    break;
+                case Protocol.HISTOGRAMS:
+                    Histograms();
+                    break;
+                case Protocol.GATHER:
+                    driverOut.writeInt(balls.n_own);
+                    for(int i=0; i<balls.n_own; i++){
+                        balls.Write(driverOut, i);
+                    }
+                    break;
+                case Protocol.STOP:
+                    if(down!=null){
+                        down.close();
+                    }
+                    if(up!=null){
+                        up.close();
+                    }
+                    return;
+                default:
+                    throw new IOException("Unknown command "+command);
+            }
+            driverOut.writeByte(command);
+            driverOut.flush();
+        }
+    }
+
+    /**
+     * Read the strip, settings and balls from the driver, and connect to the
+     * neighbouring workers
+     * @param server socket to take the connection from below on
+     * @throws IOException if a connection fails
+     */
+    private void Setup(ServerSocket server) throws IOException{
+        int index = driverIn.readInt(), n_workers = driverIn.readInt();
+        bounds = Boundary.parseBoundary(Protocol.Read_String(driverIn));
+        dt = driverIn.readDouble();
+        lo = driverIn.readDouble();
+        hi = driverIn.readDouble();
+        double max_radius = driverIn.readDouble();
+        momDistBoxWidth = driverIn.readDouble();
+        nMomBoxes = driverIn.readInt();
+        nRadBoxes = driverIn.readInt();
+        String upHost = null;
+        int upPort = 0;
+        if(index<n_workers-1){
+            upHost = Protocol.Read_String(driverIn);
+            upPort = driverIn.readInt();
+        }
+
+        //Partition just the strip and its halos
+        halo = 2*max_radius;
+        double box[] = bounds.getBounds().clone();
+        box[2] = Math.max(box[2], lo-halo);
+        box[3] = Math.min(box[3], hi+halo);
+        cells = new CellList(box, 2.25*max_radius, 0);
+        cells.Classify(bounds, 2*max_radius);
+
+        int n = driverIn.readInt();
+        balls = new Balls(cells, n);
+        for(int i=0; i<n; i++){
+            balls.Read(driverIn);
+        }
+        balls.n_own = n;
+
+        //Connect up first, then take the connection from below, so the
+        //workers can be set up one after another from the bottom
+        if(upHost!=null){
+            up = new Socket(upHost, upPort);
+            up.setTcpNoDelay(true);
+            upIn = new DataInputStream(new BufferedInputStream(up.getInputStream()));
+            upOut = new DataOutputStream(new BufferedOutputStream(up.getOutputStream()));
+        }
+        if(index>0){
+            down = server.accept();
+            down.setTcpNoDelay(true);
+            downIn = new DataInputStream(new BufferedInputStream(down.getInputStream()));
+            downOut = new DataOutputStream(new BufferedOutputStream(down.getOutputStream()));
+        }
+    }
+
+    /**
+     * Carry out one timestep: move, exchange with the neighbours, then
+     * resolve collisions between balls and with the walls
+     * @throws IOException if a neighbour's connection fails
+     */
+    private void Step() throws IOException{
+        balls.Advance(dt);
+        Sort_Leavers();
+        Exchange();
+        balls.Rebin();
+        Collisions();
+        Walls();
+    }
+
+    /**
+     * Set aside each ball which has left the strip to be sent on, and copy
+     * each ball within the halo of an edge to be sent as a ghost. A ball
+     * which has left past an end of the billiard is kept, as it has nowhere
+     * to go
+     */
+    private void Sort_Leavers(){
+        migrateDown.Clear();
+        migrateUp.Clear();
+        ghostDown.Clear();
+        ghostUp.Clear();
+        balls.n_total = balls.n_own;
+
+        int kept = 0;
+        for(int i=0; i<balls.n_own; i++){
+            double y = balls.y[i];
+            if(y<lo && downOut!=null){
+                migrateDown.Add(balls, i);
+                continue;
+            }
+            if(y>=hi && upOut!=null){
+                migrateUp.Add(balls, i);
+                continue;
+            }
+            balls.Move(i, kept);
+            if(y<lo+halo && downOut!=null){
+                ghostDown.Add(balls, kept);
+            }
+            if(y>=hi-halo && upOut!=null){
+                ghostUp.Add(balls, kept);
+            }
+            kept++;
+        }
+        balls.n_own = kept;
+        balls.n_total = kept;
+    }
+
+    /**
+     * Swap batches of migrants and ghosts with the neighbours. Each worker
+     * writes up, reads from below, writes down, then reads from above, so the
+     * lower side of each link always writes first. Incoming migrants become
+     * own balls, and incoming ghosts and outgoing migrants are held after all
+     * own balls
+     * @throws IOException if a neighbour's connection fails
+     */
+    private void Exchange() throws IOException{
+        if(upOut!=null){
+            Write_Batch(upOut, migrateUp, ghostUp);
+        }
+        if(downIn!=null){
+            Read_Batch(downIn, ghostsFromDown);
+        }
+        if(downOut!=null){
+            Write_Batch(downOut, migrateDown, ghostDown);
+        }
+        if(upIn!=null){
+            Read_Batch(upIn, ghostsFromUp);
+        }
+        balls.n_own = balls.n_total;
+
+        //Balls just sent on are kept as ghosts, as the neighbour now owns
+        //them and resolves their pairs crossing the edge
+        if(downIn!=null){
+            ghostsFromDown.Append_To(balls);
+            migrateDown.Append_To(balls);
+        }
+        firstUpGhost = balls.n_total;
+        if(upIn!=null){
+            ghostsFromUp.Append_To(balls);
+            migrateUp.Append_To(balls);
+        }
+    }
+
+    /**
+     * Send one batch to a neighbour
+     * @param out link to the neighbour
+     * @param migrants balls crossing into the neighbour's strip
+     * @param ghosts copies of balls near the shared edge
+     * @throws IOException if the link fails
+     */
+    private static void Write_Batch(DataOutputStream out, Batch migrants, Batch ghosts) throws IOException{
+        out.writeInt(migrants.n);
+        out.writeInt(ghosts.n);
+        migrants.Write(out);
+        ghosts.Write(out);
+        out.flush();
+    }
+
+    /**
+     * Read all of a neighbour's batch, adding its migrants as own balls and
+     * holding its ghosts until every migrant is in
+     * @param in link to the neighbour
+     * @param ghosts batch to hold the ghosts in
+     * @throws IOException if the link fails
+     */
+    private void Read_Batch(DataInputStream in, Batch ghosts) throws IOException{
+        int n_migrants = in.readInt(), n_ghosts = in.readInt();
+        for(int k=0; k<n_migrants; k++){
+            balls.Read(in);
+        }
+        ghosts.Read(in, n_ghosts);
+    }
+
+    /**
+     * Check for and carry out collisions between balls in the same or
+     * adjacent partition cells. Pairs crossing an edge go first, then pairs
+     * of own balls. Pairs of ghosts are left to their owner
+     */
+    private void Collisions(){
+        Find_Pairs(true);
+        Cross_Collisions();
+        Find_Pairs(false);
+    }
+
+    /**
+     * Loop over the pairs of balls in the same or adjacent partition cells
+     * with at least one own ball, either recording each overlapping pair of
+     * an own ball and a ghost, or resolving each overlapping pair of own
+     * balls
+     * @param cross whether to record the pairs crossing an edge, rather than
+     * resolve the pairs of own balls
+     */
+    private void Find_Pairs(boolean cross){
+        int cellStart[] = cells.cellStart, cellEnd[] = cells.cellEnd, cellOrder[] = cells.cellOrder;
+        int nx = cells.nx, ny = cells.ny;
+        n_cross = 0;
+
+        for(int c: cells.insideCells){
+            int i = c%nx, j = c/nx;
+            int end = cellEnd[c];
+            for(int p=cellStart[c]; p<end; p++){
+                int ball_p = cellOrder[p];
+
+                //Remaining balls in the same cell
+                for(int q=p+1; q<end; q++){
+                    Pair(ball_p, cellOrder[q], cross);
+                }
+
+                //Half of the adjacent cells
+                for(int s[]: CellList.HALF_SHELL){
+                    int m = i+s[0], n = j+s[1];
+                    if(m<0 || m>=nx || n>=ny){
+                        continue;
+                    }
+                    int d = n*nx+m;
+                    for(int q=cellStart[d]; q<cellEnd[d]; q++){
+                        Pair(ball_p, cellOrder[q], cross);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Record or resolve one pair of nearby balls
+     * @param i index of first ball
+     * @param j index of second ball
+     * @param cross whether to record the pair if it crosses an edge, rather
+     * than resolve it if both are own balls
+     */
+    private void Pair(int i, int j, boolean cross){
+        int n_own = balls.n_own;
+        if(cross==(i<n_own && j<n_own) || (i>=n_own && j>=n_own) || !balls.Overlapping(i, j, balls.radius)){
+            return;
+        }
+        if(!cross){
+            balls.Collide(i, j, balls.radius, balls.mass);
+            return;
+        }
+
+        //Put the ball from the lower strip first
+        int ghost = Math.max(i, j), own = Math.min(i, j);
+        if(n_cross==crossPairs.length){
+            crossPairs = Arrays.copyOf(crossPairs, 2*n_cross);
+        }
+        crossPairs[n_cross++] = ghost<firstUpGhost ? (long)ghost<<32|own : (long)own<<32|ghost;
+    }
+
+    /**
+     * Resolve the overlapping pairs crossing an edge, ordered by the original
+     * numbers of their balls. The worker on the other side of the edge sees
+     * the same balls in the same state and goes through the same pairs in the
+     * same order, so both get the same result for each collision
+     */
+    private void Cross_Collisions(){
+        int id[] = balls.id;
+        Long order[] = new Long[n_cross];
+        for(int k=0; k<n_cross; k++){
+            order[k] = crossPairs[k];
+        }
+        Arrays.sort(order, (a, b) -> {
+            int lower = Integer.compare(id[(int)(a>>>32)], id[(int)(b>>>32)]);
+            return lower!=0 ? lower : Integer.compare(id[(int)(long)a], id[(int)(long)b]);
+        });
+        for(long pair: order){
+            int i = (int)(pair>>>32), j = (int)pair;
+            if(balls.Overlapping(i, j, balls.radius)){
+                balls.Collide(i, j, balls.radius, balls.mass);
+            }
+        }
+    }
+
+    /**
+     * Bounce the own balls in wall adjacent cells off the walls, and any 
+     * which have moved far enough through the wall in a step to land in a 
+     * cell outside it. The cells are not classified again for fast balls as
+     * in BallSim, as every worker must agree on which cells are outside
+     */
+    private void Walls(){
+        byte kind[] = cells.kind;
+        int ballCell[] = cells.ballCell;
+        for(int i=0; i<balls.n_own; i++){
+            if(kind[ballCell[i]]!=CellList.INTERIOR){
+                bounds.Bounce_All(balls.x, balls.y, balls.vx, balls.vy, balls.radius, i, i+1);
+            }
+        }
+    }
+
+    /**
+     * Send the momentum and radial velocity histograms of the own balls,
+     * worked out as BallSim does. Values past the last box are counted in it
+     * @throws IOException if the driver's connection fails
+     */
+    private void Histograms() throws IOException{
+        int mom[] = new int[nMomBoxes], rad[] = new int[nRadBoxes];
+        for(int i=0; i<balls.n_own; i++){
+            double pos_x = balls.x[i], pos_y = balls.y[i], vel_x = balls.vx[i], vel_y = balls.vy[i];
+            mom[Math.min(nMomBoxes-1, (int)((Math.sqrt(vel_x*vel_x+vel_y*vel_y)*balls.mass[i])/momDistBoxWidth))]++;
+            double cos = (pos_x*vel_x+pos_y*vel_y)/Math.sqrt((pos_x*pos_x+pos_y*pos_y)*(vel_x*vel_x+vel_y*vel_y));
+            rad[Math.min(nRadBoxes-1, (int)((1-Math.abs(cos))*nRadBoxes))]++;
+        }
+        Protocol.Write_Histogram(driverOut, mom);
+        Protocol.Write_Histogram(driverOut, rad);
+    }
+
+    /**
+     * Balls held by a worker: its own balls first, then the ghosts copied
+     * from its neighbours for this step
+     */
+    private static class Balls extends StateStore {
+
+        int n_own, n_total;
+        int id[];
+        double x[], y[], vx[], vy[], radius[], mass[];
+
+        /**
+         * @param partition partition to sort the balls into
+         * @param capacity number of balls to make room for
+         */
+        Balls(CellList partition, int capacity){
+            super(partition);
+            capacity = Math.max(capacity, 16);
+            id = new int[capacity];
+            x = new double[capacity];
+            y = new double[capacity];
+            vx = new double[capacity];
+            vy = new double[capacity];
+            radius = new double[capacity];
+            mass = new double[capacity];
+        }
+
+        /**
+         * Read the record of a ball and add it after all others
+         * @param in stream to read from
+         * @throws IOException if the stream fails
+         */
+        void Read(DataInputStream in) throws IOException{
+            Add(in.readInt(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+        }
+
+        /**
+         * Add a ball after all others
+         * @param ID original number of the ball
+         * @param X x position
+         * @param Y y position
+         * @param VX x velocity
+         * @param VY y velocity
+         * @param Radius radius
+         * @param Mass mass
+         */
+        void Add(int ID, double X, double Y, double VX, double VY, double Radius, double Mass){
+            if(n_total==id.length){
+                int capacity = 2*n_total;
+                id = Arrays.copyOf(id, capacity);
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                vx = Arrays.copyOf(vx, capacity);
+                vy = Arrays.copyOf(vy, capacity);
+                radius = Arrays.copyOf(radius, capacity);
+                mass = Arrays.copyOf(mass, capacity);
+            }
+            int i = n_total++;
+            id[i] = ID;
+            x[i] = X;
+            y[i] = Y;
+            vx[i] = VX;
+            vy[i] = VY;
+            radius[i] = Radius;
+            mass[i] = Mass;
+        }
+
+        /**
+         * Write the record of a ball
+         * @param out stream to write to
+         * @param i index of ball
+         * @throws IOException if the stream fails
+         */
+        void Write(DataOutputStream out, int i) throws IOException{
+            Protocol.Write_Ball(out, id[i], x[i], y[i], vx[i], vy[i], radius[i], mass[i]);
+        }
+
+        /**
+         * Move a ball to a lower index
+         * @param from index of ball
+         * @param to new index
+         */
+        void Move(int from, int to){
+            id[to] = id[from];
+            x[to] = x[from];
+            y[to] = y[from];
+            vx[to] = vx[from];
+            vy[to] = vy[from];
+            radius[to] = radius[from];
+            mass[to] = mass[from];
+        }
+
+        @Override
+        double X(int i){
+            return x[i];
+        }
+
+        @Override
+        double Y(int i){
+            return y[i];
+        }
+
+        @Override
+        double VX(int i){
+            return vx[i];
+        }
+
+        @Override
+        double VY(int i){
+            return vy[i];
+        }
+
+        @Override
+        double Dx(int i, int j){
+            return x[i]-x[j];
+        }
+
+        @Override
+        double Dy(int i, int j){
+            return y[i]-y[j];
+        }
+
+        @Override
+        void Set(int i, double X, double Y, double VX, double VY){
+            x[i] = X;
+            y[i] = Y;
+            vx[i] = VX;
+            vy[i] = VY;
+        }
+
+        /**
+         * Move the own balls along their velocities
+         * @param dt timestep
+         */
+        @Override
+        void Advance(double dt){
+            for(int i=0; i<n_own; i++){
+                x[i] += vx[i]*dt;
+                y[i] += vy[i]*dt;
+            }
+        }
+
+        /**
+         * Sort the own balls and ghosts into the partition
+         */
+        @Override
+        void Rebin(){
+            cells.Set_Ball_Count(n_total);
+            int ballCell[] = cells.ballCell;
+            for(int i=0; i<n_total; i++){
+                ballCell[i] = cells.cell(x[i], y[i]);
+            }
+            cells.Sort(0);
+        }
+    }
+
+    /**
+     * Records of balls to send to a neighbour in one batch
+     */
+    private static class Batch {
+
+        int n;
+        private int id[] = new int[16];
+        private double vals[] = new double[6*16];
+
+        /**
+         * Empty the batch
+         */
+        void Clear(){
+            n = 0;
+        }
+
+        /**
+         * Copy the record of a ball into the batch
+         * @param balls balls held by the worker
+         * @param i index of ball
+         */
+        void Add(Balls balls, int i){
+            Add(balls.id[i], balls.x[i], balls.y[i], balls.vx[i], balls.vy[i], balls.radius[i], balls.mass[i]);
+        }
+
+        /**
+         * Add the record of a ball to the batch
+         * @param ID original number of the ball
+         * @param x x position
+         * @param y y position
+         * @param vx x velocity
+         * @param vy y velocity
+         * @param radius radius
+         * @param mass mass
+         */
+        private void Add(int ID, double x, double y, double vx, double vy, double radius, double mass){
+            if(n==id.length){
+                id = Arrays.copyOf(id, 2*n);
+                vals = Arrays.copyOf(vals, 12*n);
+            }
+            id[n] = ID;
+            int k = 6*n++;
+            vals[k] = x;
+            vals[k+1] = y;
+            vals[k+2] = vx;
+            vals[k+3] = vy;
+            vals[k+4] = radius;
+            vals[k+5] = mass;
+        }
+
+        /**
+         * Replace the batch with records read from a stream
+         * @param in stream to read from
+         * @param count number of records to read
+         * @throws IOException if the stream fails
+         */
+        void Read(DataInputStream in, int count) throws IOException{
+            n = 0;
+            for(int m=0; m<count; m++){
+                Add(in.readInt(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+            }
+        }
+
+        /**
+         * Add every ball in the batch after the balls held by a worker
+         * @param balls balls held by the worker
+         */
+        void Append_To(Balls balls){
+            for(int m=0; m<n; m++){
+                int k = 6*m;
+                balls.Add(id[m], vals[k], vals[k+1], vals[k+2], vals[k+3], vals[k+4], vals[k+5]);
+            }
+        }
+
+        /**
+         * Write every record in the batch
+         * @param out stream to write to
+         * @throws IOException if the stream fails
+         */
+        void Write(DataOutputStream out) throws IOException{
+            for(int m=0; m<n; m++){
+                int k = 6*m;
+                Protocol.Write_Ball(out, id[m], vals[k], vals[k+1], vals[k+2], vals[k+3], vals[k+4], vals[k+5]);
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package collisionsim;
+
+import Boundaries.Boundary;
+import Physics.Formulae;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Positions and velocities of the balls of a BallSim held somewhere other
+ * than its double arrays, along with the parts of a GRID step which work on
+ * them: moving the balls, sorting them into the partition, and resolving
+ * ball-ball and ball-wall collisions. All collision arithmetic is done in 
+ * double precision, in the same order as BallSim does it for its arrays.
+ *
+ * @author cjcode975
+ */
+abstract class StateStore {
+
+    //Partition kept up to date by Rebin
+    final CellList cells;
+
+    //Each thread's copy of the cell it is bouncing off the walls
+    private final ThreadLocal<WallCopy> wallCopy = ThreadLocal.withInitial(WallCopy::new);
+
+    /**
+     * @param partition partition to sort the balls into
+     */
+    StateStore(CellList partition){
+        cells = partition;
+    }
+
+    /**
+     * Set up a state held outside the heap, using OffHeapState from the
+     * src-jdk21 source root. It is looked up by name, as it needs the
+     * preview Foreign Function and Memory API of Java 21
+     * @param partition partition to sort the balls into
+     * @param N_Balls number of balls
+     * @param fName file to map, or null to allocate the memory directly
+     * @param resume true to keep the state already in the file, which must
+     * be exactly the size needed, false to create the file or cut it to size
+     * @return state
+     * @throws IOException if the file cannot be opened or mapped, or is the
+     * wrong size to resume from
+     */
+    static StateStore Off_Heap(CellList partition, int N_Balls, String fName, boolean resume) throws IOException{
+        try{
+            return (StateStore)Class.forName("collisionsim.OffHeapState")
+                    .getDeclaredMethod("Create", CellList.class, int.class, String.class, boolean.class)
+                    .invoke(null, partition, N_Balls, fName, resume);
+        }
+        catch(InvocationTargetException e){
+            if(e.getCause() instanceof IOException){
+                throw (IOException)e.getCause();
+            }
+            throw new IllegalStateException("Could not set up OFF_HEAP storage", e.getCause());
+        }
+        catch(ReflectiveOperationException | LinkageError e){
+            throw new IllegalStateException("OFF_HEAP storage needs the src-jdk21 classes and --enable-preview", e);
+        }
+    }
+
+    /**
+     * Get the x position of a ball
+     * @param i index of ball
+     * @return x position
+     */
+    abstract double X(int i);
+
+    /**
+     * Get the y position of a ball
+     * @param i index of ball
+     * @return y position
+     */
+    abstract double Y(int i);
+
+    /**
+     * Get the x velocity of a ball
+     * @param i index of ball
+     * @return x velocity
+     */
+    abstract double VX(int i);
+
+    /**
+     * Get the y velocity of a ball
+     * @param i index of ball
+     * @return y velocity
+     */
+    abstract double VY(int i);
+
+    /**
+     * Get the x separation of two balls
+     * @param i index of first ball
+     * @param j index of second ball
+     * @return x position of ball i minus that of ball j
+     */
+    abstract double Dx(int i, int j);
+
+    /**
+     * Get the y separation of two balls
+     * @param i index of first ball
+     * @param j index of second ball
+     * @return y position of ball i minus that of ball j
+     */
+    abstract double Dy(int i, int j);
+
+    /**
+     * Set the position and velocity of a ball
+     * @param i index of ball
+     * @param x x position
+     * @param y y position
+     * @param vx x velocity
+     * @param vy y velocity
+     */
+    abstract void Set(int i, double x, double y, double vx, double vy);
+
+    /**
+     * Move all balls along their velocities
+     * @param dt timestep
+     */
+    abstract void Advance(double dt);
+
+    /**
+     * Sort the balls into the partition by their current positions
+     */
+    abstract void Rebin();
+
+    /**
+     * Copy a double precision state in
+     * @param x x positions
+     * @param y y positions
+     * @param vx x velocities
+     * @param vy y velocities
+     */
+    void Load(double x[], double y[], double vx[], double vy[]){
+        for(int i=0; i<x.length; i++){
+            Set(i, x[i], y[i], vx[i], vy[i]);
+        }
+    }
+
+    /**
+     * Write the state through to wherever it is saved. Does nothing unless
+     * the state is held in a file
+     */
+    void Force(){
+    }
+
+    /**
+     * Record the original index of the ball held at each index, so a state
+     * held in a file can be matched back up with its balls. Does nothing 
+     * unless the state is held in a file
+     * @param ids original index of each ball
+     */
+    void Save_Ids(int ids[]){
+    }
+
+    /**
+     * Read back the indices recorded by Save_Ids
+     * @return original index of each ball, or null if the state is not held
+     * in a file
+     */
+    int[] Load_Ids(){
+        return null;
+    }
+
+    /**
+     * Write the state out into double arrays
+     * @param x array to fill with x positions
+     * @param y array to fill with y positions
+     * @param vx array to fill with x velocities
+     * @param vy array to fill with y velocities
+     */
+    void Unpack(double x[], double y[], double vx[], double vy[]){
+        for(int i=0; i<x.length; i++){
+            x[i] = X(i);
+            y[i] = Y(i);
+            vx[i] = VX(i);
+            vy[i] = VY(i);
+        }
+    }
+
+    /**
+     * Check if two balls are overlapping
+     * @param i index of first ball
+     * @param j index of second ball
+     * @param radius radii of the balls
+     * @return if the balls overlap
+     */
+    boolean Overlapping(int i, int j, double radius[]){
+        double dx = Dx(i, j), dy = Dy(i, j);
+        double rsum = radius[i]+radius[j];
+        return dx*dx+dy*dy < rsum*rsum;
+    }
+
+    /**
+     * Get how long ago two overlapping balls first touched
+     * @param i index of first ball
+     * @param j index of second ball
+     * @param radius radii of the balls
+     * @return time since the balls touched, or NaN if there is none
+     */
+    double Contact_Time(int i, int j, double radius[]){
+        return Formulae.whenCirclesIntersected(Dx(i, j), Dy(i, j), VX(i)-VX(j), VY(i)-VY(j), radius[i], radius[j]);
+    }
+
+    /**
+     * Calculate and set the new velocities, and corrected positions for two
+     * balls which have collided, in exactly the same way as BallSim does for
+     * its arrays
+     * @param i index of first ball
+     * @param j index of second ball
+     * @param radius radii of the balls
+     * @param mass masses of the balls
+     */
+    void Collide(int i, int j, double radius[], double mass[]){
+        double vxi = VX(i), vyi = VY(i), vxj = VX(j), vyj = VY(j);
+        double tcorrec = Formulae.whenCirclesIntersected(Dx(i, j), Dy(i, j), vxi-vxj, vyi-vyj, radius[i], radius[j]);
+        if(Double.isNaN(tcorrec)){
+            return;
+        }
+
+        //Unwind time to the collision
+        double xi = X(i)-vxi*tcorrec, yi = Y(i)-vyi*tcorrec;
+        double xj = X(j)-vxj*tcorrec, yj = Y(j)-vyj*tcorrec;
+
+        //Calculate the effect of the collision on the velocities
+        double xdiff_x = xi-xj, xdiff_y = yi-yj;
+        double vdiff_x = vxi-vxj, vdiff_y = vyi-vyj;
+
+        double inc = 2*(vdiff_x*xdiff_x+vdiff_y*xdiff_y)/((mass[i]+mass[j])*(xdiff_x*xdiff_x+xdiff_y*xdiff_y));
+
+        vxi -= inc*mass[j]*xdiff_x;
+        vyi -= inc*mass[j]*xdiff_y;
+        vxj += inc*mass[i]*xdiff_x;
+        vyj += inc*mass[i]*xdiff_y;
+
+        //Evolve back to the end of the timestep
+        Set(i, xi+vxi*tcorrec, yi+vyi*tcorrec, vxi, vyi);
+        Set(j, xj+vxj*tcorrec, yj+vyj*tcorrec, vxj, vyj);
+    }
+
+    /**
+     * Check the balls in one partition cell for collisions with the walls.
+     * The cell is copied into the calling thread's scratch arrays, bounced 
+     * by the boundary in one go, and any ball it bounced is copied back
+     * @param c index of cell
+     * @param boundary boundary of the billiard
+     * @param radius radii of the balls
+     */
+    void Bounce_Cell(int c, Boundary boundary, double radius[]){
+        int cellOrder[] = cells.cellOrder, start = cells.cellStart[c], n = cells.cellEnd[c]-start;
+        WallCopy copy = wallCopy.get();
+        copy.Fit(n);
+        double px[] = copy.x, py[] = copy.y, pvx[] = copy.vx, pvy[] = copy.vy, r[] = copy.radius;
+        for(int k=0; k<n; k++){
+            int i = cellOrder[start+k];
+            px[k] = X(i);
+            py[k] = Y(i);
+            pvx[k] = VX(i);
+            pvy[k] = VY(i);
+            r[k] = radius[i];
+        }
+        boundary.Bounce_All(px, py, pvx, pvy, r, 0, n);
+        for(int k=0; k<n; k++){
+            int i = cellOrder[start+k];
+            if(pvx[k]!=VX(i) || pvy[k]!=VY(i)){
+                Set(i, px[k], py[k], pvx[k], pvy[k]);
+            }
+        }
+    }
+
+    /**
+     * Double precision copy of the balls of one cell, for the boundary to
+     * bounce
+     */
+    private static class WallCopy {
+        double x[] = new double[0], y[] = new double[0], vx[] = new double[0], vy[] = new double[0], radius[] = new double[0];
+
+        /**
+         * Make sure there is room for a number of balls
+         * @param n number of balls
+         */
+        void Fit(int n){
+            if(x.length<n){
+                int size = Math.max(n, 2*x.length);
+                x = new double[size];
+                y = new double[size];
+                vx = new double[size];
+                vy = new double[size];
+                radius = new double[size];
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package collisionsim;
+
+/**
+ * Time stepping kernel which moves several balls at once. The only
+ * implementation, SimdKernels, uses the incubating Java Vector API and lives
+ * in the separate src-jdk21 source root, so it is looked up by name and
+ * this tree still builds without it.
+ *
+ * @author cjcode975
+ */
+interface StepKernels {
+
+    //Kernel to use, or null if the Vector API or SimdKernels is missing
+    static final StepKernels SIMD = Load();
+
+    /**
+     * Move balls along their velocities for a timestep
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param vx x velocities of the balls
+     * @param vy y velocities of the balls
+     * @param dt timestep
+     * @param n number of balls
+     */
+    void Advance(double x[], double y[], double vx[], double vy[], double dt, int n);
+
+    /**
+     * Look up the Vector API kernel, if the jdk.incubator.vector module is
+     * present and SimdKernels was built
+     * @return kernel, or null if it can't be used
+     */
+    private static StepKernels Load(){
+        if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()){
+            return null;
+        }
+        try{
+            return (StepKernels)Class.forName("collisionsim.SimdKernels").getDeclaredConstructor().newInstance();
+        }
+        catch(ReflectiveOperationException | LinkageError e){
+            return null;
+        }
+    }
+}
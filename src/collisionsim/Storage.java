@@ -0,0 +1,30 @@
+package collisionsim;
+
+/**
+ * Ways BallSim can hold the positions and velocities of the balls
+ * 
+ * @author cjcode975
+ */
+public enum Storage {
+    
+    /**
+     * Double precision arrays on the Java heap
+     */
+    HEAP,
+    
+    /**
+     * Single precision arrays on the Java heap, with positions held relative
+     * to the partition cell each ball is in. Takes less memory, and halves 
+     * the memory traffic of a step, for very large numbers of balls
+     */
+    SINGLE_PRECISION,
+    
+    /**
+     * Double precision memory outside the Java heap, optionally mapped from
+     * a file. Keeps the heap, and so garbage collection pauses, small for 
+     * very large numbers of balls, and lets the state be saved by flushing
+     * the file. Needs the src-jdk21 source root to be built, and on Java 21
+     * the JVM to be started with --enable-preview
+     */
+    OFF_HEAP
+}
@@ -0,0 +1,119 @@
+package collisionsim;
+
+import java.util.Arrays;
+
+/**
+ * Sort and sweep broadphase along the x axis. The balls are kept sorted by
+ * the left edge of their x extent, and a sweep along this order finds every
+ * pair whose x extents overlap, which are then pruned by their y extents.
+ *
+ * Balls only move a little each step, so the order from the previous step is
+ * nearly sorted already and is repaired with an insertion sort, which is
+ * close to linear time in this case. Unlike the grid, no work is wasted on
+ * the empty parts of the bounding box of long thin billiards.
+ *
+ * The candidate pairs from the last sweep are pairA[k], pairB[k] for
+ * k < n_pairs, in sweep order.
+ *
+ * @author cjcode975
+ */
+class SweepAndPrune {
+
+    private final int n_balls;
+
+    //Ball indices sorted by left edge, and the left edge of each ball
+    private final int order[];
+    private final double left[];
+    private boolean sorted = false;
+
+    int n_pairs = 0;
+    int pairA[] = new int[16], pairB[] = new int[16];
+
+    /**
+     * Create a sweep for a number of balls
+     * @param N_Balls number of balls
+     */
+    SweepAndPrune(int N_Balls){
+        n_balls = N_Balls;
+        order = new int[n_balls];
+        left = new double[n_balls];
+    }
+
+    /**
+     * Find all pairs of balls whose bounding squares overlap
+     * @param x x positions of the balls
+     * @param y y positions of the balls
+     * @param radius radii of the balls
+     */
+    void Sweep(double x[], double y[], double radius[]){
+        for(int i=0; i<n_balls; i++){
+            left[i] = x[i]-radius[i];
+        }
+        if(sorted){
+            InsertionSort();
+        }
+        else{
+            FullSort();
+        }
+
+        n_pairs = 0;
+        for(int p=0; p<n_balls; p++){
+            int a = order[p];
+            double right = x[a]+radius[a];
+            for(int q=p+1; q<n_balls && left[order[q]]<=right; q++){
+                int b = order[q];
+                if(Math.abs(y[a]-y[b])<=radius[a]+radius[b]){
+                    AddPair(a, b);
+                }
+            }
+        }
+    }
+
+    /**
+     * Repair the order from the previous sweep, moving each ball back past
+     * any balls it has overtaken
+     */
+    private void InsertionSort(){
+        for(int p=1; p<n_balls; p++){
+            int a = order[p];
+            double key = left[a];
+            int q = p-1;
+            while(q>=0 && left[order[q]]>key){
+                order[q+1] = order[q];
+                q--;
+            }
+            order[q+1] = a;
+        }
+    }
+
+    /**
+     * Sort the balls from scratch, for the first sweep, when nothing is known
+     * of their order
+     */
+    private void FullSort(){
+        Integer boxed[] = new Integer[n_balls];
+        for(int i=0; i<n_balls; i++){
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, (a, b) -> Double.compare(left[a], left[b]));
+        for(int i=0; i<n_balls; i++){
+            order[i] = boxed[i];
+        }
+        sorted = true;
+    }
+
+    /**
+     * Record a candidate pair
+     * @param i index of first ball
+     * @param j index of second ball
+     */
+    private void AddPair(int i, int j){
+        if(n_pairs==pairA.length){
+            pairA = Arrays.copyOf(pairA, 2*n_pairs);
+            pairB = Arrays.copyOf(pairB, 2*n_pairs);
+        }
+        pairA[n_pairs] = i;
+        pairB[n_pairs] = j;
+        n_pairs++;
+    }
+}